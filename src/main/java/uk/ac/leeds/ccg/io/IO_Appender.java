@@ -0,0 +1,318 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * For appending text records (e.g. log lines) to a file from many threads.
+ * Unlike {@link IO_Utilities#write(Path, String)}, which opens and closes the
+ * file on each call and uses the platform default charset, this keeps one
+ * {@link FileChannel} open and encodes with a given charset.
+ *
+ * {@link #append(CharSequence)} encodes the record and puts it on a lock-free
+ * queue, so the cost to the caller is the encoding and a memory copy. A
+ * background thread takes records from the queue and writes them in batches
+ * through a direct buffer once {@link #flushBytes} bytes are waiting or every
+ * {@link #flushMillis} milliseconds, whichever comes first. Records are
+ * written in the order they were queued. {@link #close()} writes everything
+ * appended before it returns.
+ *
+ * The class is final as the constructor starts the writing thread.
+ *
+ * @version 1.0
+ */
+public final class IO_Appender implements Closeable {
+
+    /**
+     * The default number of bytes waiting that triggers a write.
+     */
+    public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+
+    /**
+     * The default maximum time in milliseconds records wait to be written.
+     */
+    public static final long DEFAULT_FLUSH_MILLIS = 100L;
+
+    /**
+     * The channel.
+     */
+    private final FileChannel fc;
+
+    /**
+     * The charset.
+     */
+    private final Charset charset;
+
+    /**
+     * The number of bytes waiting that triggers a write.
+     */
+    private final int flushBytes;
+
+    /**
+     * The maximum time in milliseconds records wait to be written.
+     */
+    private final long flushMillis;
+
+    /**
+     * Encoded records waiting to be written.
+     */
+    private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of bytes in {@link #queue}.
+     */
+    private final AtomicLong waiting = new AtomicLong();
+
+    /**
+     * The number of threads in {@link #append(CharSequence)}.
+     */
+    private final AtomicInteger appending = new AtomicInteger();
+
+    /**
+     * The buffer records are batched in for writing. Only used while holding
+     * the lock of {@link #fc}.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The thread that writes records.
+     */
+    private final Thread writer;
+
+    /**
+     * Set when closing.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The first exception from writing or null.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Opens (and if necessary creates) the file at f for appending records
+     * encoded in UTF-8 with the default thresholds.
+     *
+     * @param f The file.
+     * @throws IOException If encountered.
+     */
+    public IO_Appender(Path f) throws IOException {
+        this(f, StandardCharsets.UTF_8, DEFAULT_FLUSH_BYTES,
+                DEFAULT_FLUSH_MILLIS);
+    }
+
+    /**
+     * Opens (and if necessary creates) the file at f for appending records.
+     *
+     * @param f The file.
+     * @param charset The charset to encode records with.
+     * @param flushBytes The number of bytes waiting that triggers a write.
+     * @param flushMillis The maximum time in milliseconds records wait to be
+     * written.
+     * @throws IOException If encountered.
+     */
+    public IO_Appender(Path f, Charset charset, int flushBytes,
+            long flushMillis) throws IOException {
+        if (flushBytes < 1 || flushMillis < 1L) {
+            throw new IllegalArgumentException("Thresholds must be positive.");
+        }
+        this.fc = FileChannel.open(f, CREATE, WRITE, APPEND);
+        this.charset = charset;
+        this.flushBytes = flushBytes;
+        this.flushMillis = flushMillis;
+        this.buffer = ByteBuffer.allocateDirect(flushBytes);
+        writer = new Thread(this::run, "IO_Appender " + f);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues s to be appended.
+     *
+     * @param s The record.
+     * @throws IOException If this is closed or if writing has failed.
+     */
+    public void append(CharSequence s) throws IOException {
+        append(s.toString().getBytes(charset));
+    }
+
+    /**
+     * Queues s followed by a line separator ("\n") to be appended.
+     *
+     * @param s The line.
+     * @throws IOException If this is closed or if writing has failed.
+     */
+    public void appendLine(CharSequence s) throws IOException {
+        append(s + "\n");
+    }
+
+    /**
+     * Queues encoded bytes to be appended. The array must not be changed
+     * afterwards.
+     *
+     * @param b The bytes.
+     * @throws IOException If this is closed or if writing has failed.
+     */
+    public void append(byte[] b) throws IOException {
+        appending.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IOException("Closed.");
+            }
+            checkFailure();
+            queue.add(b);
+            if (waiting.addAndGet(b.length) >= flushBytes) {
+                LockSupport.unpark(writer);
+            }
+        } finally {
+            appending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes all the records queued so far to the file.
+     *
+     * @throws IOException If encountered.
+     */
+    public void flush() throws IOException {
+        checkFailure();
+        drain();
+    }
+
+    /**
+     * Writes all the records queued so far and forces them to the storage
+     * device.
+     *
+     * @throws IOException If encountered.
+     */
+    public void force() throws IOException {
+        flush();
+        fc.force(false);
+    }
+
+    /**
+     * @throws IOException The first exception from writing if there was one.
+     */
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Writing failed.", e);
+        }
+    }
+
+    /**
+     * Writes the records in {@link #queue}.
+     *
+     * @throws IOException If encountered.
+     */
+    private void drain() throws IOException {
+        synchronized (fc) {
+            byte[] b;
+            while ((b = queue.poll()) != null) {
+                waiting.addAndGet(-b.length);
+                if (b.length > buffer.remaining()) {
+                    write();
+                    if (b.length > buffer.capacity()) {
+                        ByteBuffer w = ByteBuffer.wrap(b);
+                        while (w.hasRemaining()) {
+                            fc.write(w);
+                        }
+                        continue;
+                    }
+                }
+                buffer.put(b);
+            }
+            write();
+        }
+    }
+
+    /**
+     * Writes {@link #buffer}.
+     *
+     * @throws IOException If encountered.
+     */
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fc.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The loop of {@link #writer}.
+     */
+    private void run() {
+        long period = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        while (!closed) {
+            LockSupport.parkNanos(this, period);
+            try {
+                drain();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                e.printStackTrace(System.err);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes everything appended and closes the file. Further appends fail.
+     *
+     * @throws IOException If encountered.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (appending.get() > 0) {
+            Thread.onSpinWait();
+        }
+        try {
+            drain();
+        } finally {
+            fc.close();
+        }
+        checkFailure();
+    }
+}
@@ -15,15 +15,58 @@
  */
 package uk.ac.leeds.ccg.io;
 
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
 import java.util.stream.Stream;
 //import uk.ac.leeds.ccg.generic.core.Generic_Strings;
 //import uk.ac.leeds.ccg.generic.util.Generic_Collections;
@@ -143,7 +186,7 @@ import java.util.stream.Stream;
  * @author Andy Turner
  * @version 1.1
  */
-public class IO_Cache implements Serializable {
+public class IO_Cache implements Serializable, Closeable {
 
     private static final long serialVersionUID = 1L;
 
@@ -153,6 +196,107 @@ public class IO_Cache implements Serializable {
      */
     protected static final String SEP = "_";
 
+    /**
+     * The name of the directory in {@link #baseDir} for storing metadata about
+     * the cache. This is not part of the tree of directories starting at
+     * {@link #root}.
+     */
+    protected static final String META = "meta";
+
+    /**
+     * The name of the change log file in the {@link #META} directory. The
+     * change log is a sequence of identifiers each written as 8 bytes in the
+     * order that entries are added.
+     */
+    protected static final String CHANGES = "changes";
+
+    /**
+     * The name of the control file in the {@link #META} directory used for
+     * leasing blocks of identifiers to processes writing to the cache at the
+     * same time. See {@link #enableMultiWriter(long)}.
+     */
+    protected static final String LEASE = "lease";
+
+    /**
+     * The name of the file in the {@link #META} directory in which
+     * {@link #stats} are persisted.
+     */
+    protected static final String STATS = "stats";
+
+    /**
+     * The name of the directory in the {@link #META} directory into which
+     * evicted directories are moved before being deleted.
+     */
+    protected static final String TRASH = "trash";
+
+    /**
+     * The name of the directory in the {@link #META} directory in which the
+     * unique payloads of entries are stored if deduplication is enabled. See
+     * {@link #enableDedup()}.
+     */
+    protected static final String CONTENT = "content";
+
+    /**
+     * The name of the file in the {@link #META} directory in which class
+     * descriptors are stored if compact descriptors are enabled. See
+     * {@link #enableCompactDescriptors()}.
+     */
+    protected static final String CLASSES = "classes";
+
+    /**
+     * The name of the marker file in the {@link #META} directory which
+     * indicates that the cache has a flat layout. See
+     * {@link #enableFlatLayout()}.
+     */
+    protected static final String FLAT = "flat";
+
+    /**
+     * The suffix given to a leaf directory while it is being migrated by
+     * {@link #migrateToFlat(Path, int)}.
+     */
+    protected static final String MIGRATING = ".mig";
+
+    /**
+     * The default number of identifiers leased at a time.
+     */
+    public static final long DEFAULT_BLOCK_SIZE = 1024L;
+
+    /**
+     * The size of the buffers used for streaming entries in and out.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * For reading values from segments of entries added with
+     * {@link #addDoubles(double[])}.
+     */
+    public static final ValueLayout.OfDouble DOUBLE_LE
+            = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(
+                    ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * For reading values from segments of entries added with
+     * {@link #addFloats(float[])}.
+     */
+    public static final ValueLayout.OfFloat FLOAT_LE
+            = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(
+                    ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * For reading values from segments of entries added with
+     * {@link #addInts(int[])}.
+     */
+    public static final ValueLayout.OfInt INT_LE
+            = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * For reading values from segments of entries added with
+     * {@link #addLongs(long[])}.
+     */
+    public static final ValueLayout.OfLong LONG_LE
+            = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(
+                    ByteOrder.LITTLE_ENDIAN);
+
     /**
      * For storing the base directory path of the cache.
      */
@@ -232,6 +376,96 @@ public class IO_Cache implements Serializable {
      */
     protected long nextID;
 
+    /**
+     * For appending to the change log if it is enabled, otherwise null.
+     */
+    protected transient FileChannel changeLog;
+
+    /**
+     * The identifiers of entries being written by this instance, which are not
+     * yet passed to subscribers. Guarded by this.
+     */
+    private transient Set<Long> writing;
+
+    /**
+     * The identifiers of entries this instance failed to write, which are
+     * never passed to subscribers. Guarded by this.
+     */
+    private transient Set<Long> abandoned;
+
+    /**
+     * In-process subscriptions to the identifiers of added entries.
+     */
+    private transient List<IO_CacheTail> subscribers;
+
+    /**
+     * For leasing blocks of identifiers if multi-writer mode is enabled,
+     * otherwise null.
+     */
+    protected transient IO_CacheLease lease;
+
+    /**
+     * The number of identifiers leased at a time.
+     */
+    protected transient long blockSize;
+
+    /**
+     * The next identifier to use from the currently leased block.
+     */
+    protected transient long leaseNext;
+
+    /**
+     * The upper (exclusive) identifier of the currently leased block.
+     */
+    protected transient long leaseEnd;
+
+    /**
+     * Running totals for the cache. If null, these are initialised when first
+     * needed by {@link #getStats()}.
+     */
+    protected transient IO_CacheStats stats;
+
+    /**
+     * The retention policy being enforced, otherwise null.
+     */
+    protected transient IO_CacheRetention retention;
+
+    /**
+     * The directory of unique payloads if deduplication is enabled, otherwise
+     * null.
+     */
+    protected transient Path contentDir;
+
+    /**
+     * The dictionary of class descriptors if compact descriptors are enabled,
+     * otherwise null.
+     */
+    protected transient IO_ClassDictionary classes;
+
+    /**
+     * true if the cache has a flat layout in which each entry is a file named
+     * by its identifier in the directory at the level above the leaves, rather
+     * than a file in a leaf directory named by its identifier.
+     */
+    protected transient boolean flat;
+
+    /**
+     * The off-heap memory tier, otherwise null.
+     */
+    protected transient IO_CacheTier tier;
+
+    /**
+     * For hashing payloads in each thread.
+     */
+    private static final ThreadLocal<MessageDigest> DIGEST
+            = ThreadLocal.withInitial(() -> {
+                try {
+                    return MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
     /**
      * Create a new instance.
      */
@@ -296,6 +530,7 @@ public class IO_Cache implements Serializable {
         dirCounts.add(1L);
         dirCounts.add(1L);
         root = lps[0];
+        stats = new IO_CacheStats(rangeL);
     }
 
     /**
@@ -314,6 +549,7 @@ public class IO_Cache implements Serializable {
                     + "is a directory.");
         }
         List<Path> l = IO_Utilities.getList(p);
+        l.removeIf(x -> x.getFileName().toString().equals(META));
         if (l.size() != 1) {
             throw new Exception("Path " + p.toString() + " does not appear to "
                     + "be a cache as it does not contain one element.");
@@ -362,12 +598,94 @@ public class IO_Cache implements Serializable {
             throw new Exception("range < 0 or > Short.MAX_VALUE.");
         }
         rangeBI = BigInteger.valueOf(rangeL);
+        flat = Files.exists(getMetaPath(FLAT));
         testIntegrity();
         initLevelsAndNextID();
-        ranges = getRanges(nextID, rangeL);
+        /**
+         * In multi-writer mode the cache may have been made deeper than is
+         * needed for nextID, so ranges are set from the root directory.
+         */
+        refresh();
         initLPs();
         dirCounts = getDirCounts(nextID, rangeL);
-        initNextRange();
+        while (dirCounts.size() < levels) {
+            dirCounts.add(0, 1L);
+        }
+        if (Files.exists(getMetaPath(CHANGES))) {
+            enableChangeLog();
+        }
+        if (Files.exists(getMetaPath(LEASE))) {
+            enableMultiWriter(DEFAULT_BLOCK_SIZE);
+        }
+        if (Files.isDirectory(getMetaPath(CONTENT))) {
+            enableDedup();
+        }
+        if (Files.exists(getMetaPath(CLASSES))) {
+            enableCompactDescriptors();
+        }
+        if (Files.exists(getMetaPath(STATS))) {
+            try {
+                if (isStatsCurrent()) {
+                    stats = IO_CacheStats.read(getMetaPath(STATS));
+                }
+            } catch (IOException e) {
+                // Initialised by walking the cache if needed.
+                stats = null;
+            }
+        }
+    }
+
+    /**
+     * Reads a serialized cache and re-derives {@link #flat} from the
+     * {@link #META} directory as for {@link #IO_Cache(Path)}. The change log,
+     * deduplication and compact descriptors are also enabled again if they
+     * are enabled for the cache. Multi-writer mode is not, as there should
+     * be one instance per process writing to the cache.
+     *
+     * @param in The stream to read from.
+     * @throws IOException If encountered.
+     * @throws ClassNotFoundException If encountered.
+     */
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        flat = Files.exists(getMetaPath(FLAT));
+        if (Files.exists(getMetaPath(CHANGES))) {
+            enableChangeLog();
+        }
+        if (Files.isDirectory(getMetaPath(CONTENT))) {
+            enableDedup();
+        }
+        if (Files.exists(getMetaPath(CLASSES))) {
+            enableCompactDescriptors();
+        }
+    }
+
+    /**
+     * Checks that the statistics persisted in the {@link #META} directory are
+     * newer than the change log and the directory of the highest entry. If
+     * not, the cache may have been changed after they were written (for
+     * example by a process that crashed before closing the cache), so they are
+     * not used and are rebuilt by walking the cache (see {@link #getStats()}).
+     * File times can be coarse, so equal times are treated as stale.
+     *
+     * @return true if the persisted statistics are current.
+     * @throws IOException If encountered.
+     */
+    protected boolean isStatsCurrent() throws IOException {
+        FileTime t = Files.getLastModifiedTime(getMetaPath(STATS));
+        Path c = getMetaPath(CHANGES);
+        if (Files.exists(c) && Files.getLastModifiedTime(c).compareTo(t) >= 0) {
+            return false;
+        }
+        if (nextID > 0L) {
+            Path d = getEntryPath(nextID).getParent();
+            if (Files.exists(d)
+                    && Files.getLastModifiedTime(d).compareTo(t) >= 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -435,10 +753,7 @@ public class IO_Cache implements Serializable {
      * total number of files to store.
      */
     public static int getLevels(long n, long range) {
-        int r = 0;
-        if (n % range != 0) {
-            r += 1;
-        }
+        int r = 1;
         while (n >= range) {
             n = n / range;
             r++;
@@ -472,8 +787,16 @@ public class IO_Cache implements Serializable {
      */
     protected final void initLevelsAndNextID() throws IOException {
         Path p = findHighestLeaf();
-        nextID = Long.parseLong(p.getFileName().toString());
-        levels = p.getNameCount() - baseDir.getNameCount() - 1;
+        if (p == null) {
+            // A cache with a flat layout and no entries in its highest dir.
+            Path hd = getHighestDir();
+            long l = Long.parseLong(hd.getFileName().toString().split(SEP)[0]);
+            nextID = Math.max(0L, l - 1L);
+            levels = hd.getNameCount() - baseDir.getNameCount();
+        } else {
+            nextID = Long.parseLong(p.getFileName().toString());
+            levels = p.getNameCount() - baseDir.getNameCount() - 1;
+        }
     }
 
     /**
@@ -563,15 +886,7 @@ public class IO_Cache implements Serializable {
             ArrayList<Long> ranges) {
         ArrayList<Integer> r = new ArrayList<>();
         for (int lvl = levels - 1; lvl >= 0; lvl--) {
-            long id2 = id;
-            long range = ranges.get(lvl);
-            int c = 0;
-            id2 -= range;
-            while (id2 >= 0) {
-                id2 -= range;
-                c++;
-            }
-            r.add(0, c);
+            r.add(0, (int) (id / ranges.get(lvl)));
         }
         return r;
     }
@@ -614,7 +929,7 @@ public class IO_Cache implements Serializable {
      * @return The current path of the directory for storing the element
      * identified by id.
      */
-    public Path getPath(long id) {
+    public synchronized Path getPath(long id) {
         Path[] paths = new Path[levels - 1];
         ArrayList<Integer> dirIndexes = getDirIndexes(id);
         Path p = root;
@@ -633,6 +948,9 @@ public class IO_Cache implements Serializable {
     }
 
     /**
+     * This reloads the whole cache, so to keep up with entries being added by
+     * another process use {@link #subscribe(Path, long, LongConsumer)}.
+     *
      * @param baseDir The baseDir of a cache for which the nextID is returned.
      * @return The nextID of the cache with a baseDirectory baseDir.
      * @throws Exception If encountered
@@ -680,14 +998,56 @@ public class IO_Cache implements Serializable {
 
     /**
      * Serializes and writes o to
-     * {@code Paths.get(getHighestLeaf().toString(), name)};
+     * {@code Paths.get(getHighestLeaf().toString(), name)}; This uses
+     * {@link IO_Utilities#writeObjectPooled(Object, Path)} so that adding
+     * many Objects creates little garbage. If deduplication is enabled the
+     * entry is written with {@link #writeDedup(ByteBuffer, Path)}.
      *
      * @param o The Object to be serialised and written out.
      * @throws IOException If encountered.
      */
     public void add(Object o) throws IOException {
-        Path p = Paths.get(addDir().toString(), name);
-        IO_Utilities.writeObject(o, p);
+        if (classes == null && contentDir == null && tier == null) {
+            addEntry(p -> IO_Utilities.writeObjectPooled(o, p));
+        } else {
+            ByteBuffer b = getSerializer().serialize(o);
+            long id;
+            if (contentDir == null) {
+                id = addEntry(p -> IO_Utilities.writeBytes(b.duplicate(), p));
+            } else {
+                id = addEntry(p -> writeDedup(b, p));
+            }
+            if (tier != null) {
+                tier.put(id, b);
+            }
+        }
+    }
+
+    /**
+     * @return The serializer for the calling thread, which uses
+     * {@link #classes} if compact descriptors are enabled.
+     */
+    protected IO_Serializer getSerializer() {
+        return classes == null ? IO_Serializer.get() : classes.getSerializer();
+    }
+
+    /**
+     * Enables compact class descriptors. In this mode Objects added are
+     * serialized with streams that reference class descriptors by an int
+     * identifier rather than containing them, and the descriptors are stored
+     * once in the {@link #CLASSES} file (see {@link IO_ClassDictionary}). This
+     * makes entries for small Objects much smaller. Entries are read with
+     * {@link #get(long)} whether or not they were written in this mode. Once
+     * enabled compact descriptors remain enabled for the cache, including when
+     * it is reopened with {@link #IO_Cache(Path)}.
+     *
+     * @throws IOException If encountered.
+     */
+    public final void enableCompactDescriptors() throws IOException {
+        if (classes == null) {
+            Files.createDirectories(getMetaDir());
+            classes = new IO_ClassDictionary(getMetaPath(CLASSES));
+        }
     }
 
     /**
@@ -701,141 +1061,1722 @@ public class IO_Cache implements Serializable {
      * cannot otherwise be deserialized.
      */
     public Object get(long id) throws IOException, ClassNotFoundException {
-        Path p = Paths.get(getPath(id).toString(), name);
-        return IO_Utilities.readObject(p);
+        if (tier != null) {
+            return deserialize(new ByteArrayInputStream(getBytes(id)));
+        }
+        try (BufferedInputStream bis = readEntry(id,
+                IO_Utilities::getBufferedInputStream)) {
+            return deserialize(bis);
+        }
     }
 
     /**
-     * Adds a new directory to the cache for storing item identified by
-     * {@link #nextID}.
+     * Deserializes an Object written with either a standard serialization
+     * stream or an {@link IO_ClassDictionary.Output}.
      *
-     * @return Path of new directory added.
+     * @param is The stream to read from which must support mark.
+     * @return The deserialized Object.
      * @throws IOException If encountered.
+     * @throws ClassNotFoundException If the class of the Object is not found.
      */
-    protected Path addDir() throws IOException {
-        nextID++;
-        if (nextID % rangeL == 0) {
-            // Grow
-            if (nextID == ranges.get(0)) {
-                // Grow deeper.
-                ranges.add(0, nextRange);
-                root = new IO_Path(Paths.get(baseDir.s, getName(0L, nextRange - 1)));
-                initNextRange();
-                Files.createDirectory(root.getPath());
-                //System.out.println(root.toString());
-                Path target = Paths.get(root.s,
-                        lps[0].getFileName().toString());
-                Files.move(lps[0].getPath(), target);
-                dirCounts.add(0, 1L);
-                levels++;
-                lps = new IO_Path[levels];
-                lps[0] = root;
-                // Add width.
-                int level = levels - 2;
-                long range = ranges.get(level);
-                long dirCount = dirCounts.get(level);
-                // Add directories up to the new highest leaf
-                long l = dirCount * range;
-                for (int lvl = 1; lvl < levels; lvl++) {
-                    long u = l + ranges.get(lvl) - 1;
-                    Path p = Paths.get(lps[lvl - 1].s, getName(l, u));
-                    Files.createDirectory(p);
-                    //System.out.println(p.toString());
-                    addToList(dirCounts, lvl, 1L);
-                    lps[lvl] = new IO_Path(p);
-                }
-            } else {
-                // Add width as needed.
-                for (int lvl = 1; lvl < levels; lvl++) {
-                    long range = ranges.get(lvl);
-                    if (nextID % range == 0) {
-                        // Add a new directory.
-                        long dirCount = dirCounts.get(lvl);
-                        long l = dirCount * range;
-                        long u = l + range - 1;
-                        Path p = Paths.get(lps[lvl - 1].s, getName(l, u));
-                        Files.createDirectory(p);
-                        //System.out.println(p.toString());
-                        addToList(dirCounts, lvl, 1L);
-                        lps[lvl] = new IO_Path(p);
-                        // Add other new directories up to the new highest leaf
-                        for (int lvl2 = lvl + 1; lvl2 < levels; lvl2++) {
-                            u = l + ranges.get(lvl2) - 1;
-                            p = Paths.get(lps[lvl2 - 1].s, getName(l, u));
-                            Files.createDirectory(p);
-                            //System.out.println(p.toString());
-                            addToList(dirCounts, lvl2, 1L);
-                            lps[lvl2] = new IO_Path(p);
-                        }
-                        break;
-                    }
-                }
-            }
+    protected Object deserialize(InputStream is) throws IOException,
+            ClassNotFoundException {
+        is.mark(Short.BYTES);
+        int m = (is.read() << 8) | is.read();
+        is.reset();
+        ObjectInputStream ois;
+        if ((short) m == IO_ClassDictionary.MAGIC && classes != null) {
+            ois = new IO_ClassDictionary.Input(is, classes);
+        } else {
+            ois = new ObjectInputStream(is);
         }
-        // Add to the currentDir
-        Path p = Files.createDirectory(
-                Paths.get(lps[levels - 1].s, Long.toString(nextID)));
-        return p;
+        return ois.readObject();
     }
 
     /**
-     * Add {@code v} to the value of {@code l} at position {@code p}. A generic
-     * version of this code is in uk.ac.leeds.ccg.math.util.Math_Collections
+     * Sets the off-heap memory tier for the cache. Entries read with
+     * {@link #get(long)} or {@link #getBytes(long)} are then got from the tier
+     * if they are held in it, and are put in it if not. Entries added are also
+     * put in it. Entries replaced or evicted are removed from it. The tier is
+     * not closed when the cache is closed, so it can be shared by several
+     * caches only if their identifiers do not overlap.
      *
-     * @param l The list to add to.
-     * @param pos The position in the list to add to.
-     * @param v The value to add to the existing value in {@code l} at position
-     * {@code p}.
+     * @param tier The tier or null for none.
      */
-    private void addToList(List<Long> l, int pos, Long v) {
-        Long v0 = l.get(pos);
-        l.remove(pos);
-        l.add(pos, Math.addExact(v, v0));
+    public void setTier(IO_CacheTier tier) {
+        this.tier = tier;
     }
 
     /**
-     * @return a copy of {@link #baseDir}.
+     * @return The off-heap memory tier or null if there is none.
      */
-    public IO_Path getBaseDir() {
-        return new IO_Path(baseDir);
+    public IO_CacheTier getTier() {
+        return tier;
     }
 
     /**
-     * Tests the integrity of the cache from its base directory.
+     * Writes the remaining bytes of {@code b} as they are (without any
+     * serialization) to
+     * {@code Paths.get(getHighestLeaf().toString(), name)}. This is for
+     * storing payloads that are already serialized in some way (e.g. images,
+     * raster tiles or protocol buffers). A {@code byte[]} can be added like
+     * this by wrapping it with {@link ByteBuffer#wrap(byte[])}. Entries added
+     * like this should be read with {@link #get(long, ByteBuffer)} or
+     * {@link #getBytes(long)} rather than {@link #get(long)}. If
+     * deduplication is enabled the entry is written with
+     * {@link #writeDedup(ByteBuffer, Path)}.
      *
-     * @return true if the integrity seems fine.
-     * @throws java.io.IOException If the cache lacks integrity.
+     * @param b The bytes to add. On return the position of b is its limit.
+     * @return The identifier of the entry added.
+     * @throws IOException If encountered.
      */
-    public final boolean testIntegrity() throws IOException {
-        try ( Stream<Path> paths = Files.walk(root.getPath())) {
-            boolean ok;
-            try {
-                ok = paths.allMatch(path -> testPath(path));
-            } catch (NumberFormatException e) {
-                throw new IOException("Some paths are not OK as they contain "
-                        + "leaf file names that cannot be converted to a "
-                        + "Long.");
-            }
-            if (!ok) {
-                throw new IOException("Some paths are not OK as they are not "
-                        + "leaf files and are not not directories.");
-            }
+    public long add(ByteBuffer b) throws IOException {
+        ByteBuffer d = b.duplicate();
+        long id;
+        if (contentDir == null) {
+            id = addEntry(p -> IO_Utilities.writeBytes(b, p));
+        } else {
+            id = addEntry(p -> writeDedup(b, p));
+            b.position(b.limit());
         }
-        return true;
+        if (tier != null) {
+            tier.put(id, d);
+        }
+        return id;
     }
 
     /**
-     * @param p The path to test.
-     * @return true if p is not a directory or if there is a directory at p and
-     * the filename contains {@link #SEP} or can be readily converted to a Long.
-     * @throws NumberFormatException if p is a directory, does not contain
-     * {@link SEP} and cannot be readily converted to a Long.
+     * Replaces the entry identified by id with o, serialized as for
+     * {@link #add(Object)}. See {@link #replace(long, ByteBuffer)}.
+     *
+     * @param id The identifier of the entry to replace.
+     * @param o The Object to replace it with.
+     * @throws IOException If encountered, including
+     * {@link NoSuchFileException} if there is no such entry.
      */
-    protected final boolean testPath(Path p) {
-        String fn = p.getFileName().toString();
-        if (Files.isDirectory(p)) {
-            if (fn.contains(SEP)) {
-                return true;
+    public void replace(long id, Object o) throws IOException {
+        replace(id, getSerializer().serialize(o));
+    }
+
+    /**
+     * Replaces the entry identified by id with the remaining bytes of b. The
+     * bytes are written to a temporary file in the same directory as the entry
+     * which is then renamed over the entry in one atomic operation. So
+     * readers see either the old or the new entry and never a partly written
+     * one, and no directories are created. If deduplication is enabled the
+     * temporary file is a hard link to the stored copy of the bytes. Any
+     * chunks of the old entry beyond the first (see
+     * {@link #openForAdd(long)}) are deleted after the rename. The statistics
+     * are updated, but as the identifier is not new it is not logged or passed
+     * to subscribers.
+     *
+     * @param id The identifier of the entry to replace.
+     * @param b The bytes to replace it with. On return the position of b is
+     * its limit.
+     * @throws IOException If encountered, including
+     * {@link NoSuchFileException} if there is no such entry.
+     */
+    public void replace(long id, ByteBuffer b) throws IOException {
+        Path p = getEntryPath(id);
+        long old = Files.size(p);
+        Path t = Files.createTempFile(p.getParent(), name, null);
+        long n;
+        try {
+            if (contentDir == null) {
+                n = IO_Utilities.writeBytes(b.duplicate(), t);
+            } else {
+                Files.delete(t);
+                n = writeDedup(b, t);
+            }
+            Files.move(t, p, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(t);
+        }
+        b.position(b.limit());
+        for (int i = 1;; i++) {
+            Path c = getChunkPath(p, i);
+            try {
+                old += Files.size(c);
+                Files.delete(c);
+            } catch (NoSuchFileException e) {
+                break;
+            }
+        }
+        if (stats != null) {
+            stats.resized(id, n - old);
+        }
+        if (tier != null) {
+            tier.remove(id);
+        }
+    }
+
+    /**
+     * Enables deduplication. In this mode the payload of each entry added is
+     * hashed with SHA-256 and each unique payload is stored once in the
+     * {@link #CONTENT} directory in a file named by its hash. The file for
+     * the entry is then made a hard link to that file. Looking up whether a
+     * payload is already stored is a single check for the existence of a file,
+     * so the content directory is itself the persistent index of hashes. Once
+     * enabled deduplication remains enabled for the cache, including when it is
+     * reopened with {@link #IO_Cache(Path)}.
+     *
+     * Entries are read in the same way whether or not they were deduplicated.
+     * The totals in {@link #getStats()} count the bytes of each entry, not the
+     * bytes actually stored. Payloads that are no longer referenced by any
+     * entry (e.g. after an eviction) remain stored until
+     * {@link #collectContent()} is called.
+     *
+     * @throws IOException If encountered.
+     */
+    public final void enableDedup() throws IOException {
+        if (contentDir == null) {
+            contentDir = Files.createDirectories(getMetaPath(CONTENT));
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of b to a file at p as a hard link to the
+     * single stored copy of those bytes in {@link #contentDir}, storing them
+     * there first if they are not already stored. If a hard link cannot be
+     * made (e.g. the file system does not support them or the stored copy has
+     * as many links as are allowed) the bytes are written to p as normal.
+     *
+     * @param b The bytes to write. The position of b is not changed.
+     * @param p The path of the file to write.
+     * @return The number of bytes of the entry.
+     * @throws IOException If encountered.
+     */
+    protected long writeDedup(ByteBuffer b, Path p) throws IOException {
+        MessageDigest md = DIGEST.get();
+        md.update(b.duplicate());
+        String h = HexFormat.of().formatHex(md.digest());
+        Path c = contentDir.resolve(h.substring(0, 2)).resolve(h);
+        if (Files.notExists(c)) {
+            Path d = Files.createDirectories(c.getParent());
+            Path t = Files.createTempFile(d, h, null);
+            try {
+                IO_Utilities.writeBytes(b.duplicate(), t);
+                Files.move(t, c, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Stored by another thread or process.
+            } finally {
+                Files.deleteIfExists(t);
+            }
+        }
+        try {
+            Files.createLink(p, c);
+        } catch (NoSuchFileException e) {
+            if (Files.notExists(p.getParent())) {
+                throw e;
+            }
+            // The stored copy was collected.
+            return IO_Utilities.writeBytes(b.duplicate(), p);
+        } catch (FileSystemException | UnsupportedOperationException e) {
+            return IO_Utilities.writeBytes(b.duplicate(), p);
+        }
+        return b.remaining();
+    }
+
+    /**
+     * Deletes the stored payloads in the {@link #CONTENT} directory that are
+     * no longer referenced by any entry. This relies on the number of hard
+     * links to each file being available, so it does nothing on file systems
+     * that do not report this.
+     *
+     * @return The number of payloads deleted.
+     * @throws IOException If encountered.
+     */
+    public long collectContent() throws IOException {
+        if (contentDir == null) {
+            return 0L;
+        }
+        long[] r = new long[1];
+        try {
+            Files.walkFileTree(contentDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path f,
+                        BasicFileAttributes a) throws IOException {
+                    if (f.getFileName().toString().endsWith(".tmp")) {
+                        // Being stored.
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Object n = Files.getAttribute(f, "unix:nlink");
+                    if (((Number) n).intValue() <= 1) {
+                        Files.delete(f);
+                        r[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // The number of links is not available.
+        }
+        return r[0];
+    }
+
+    /**
+     * For writing an entry to a file.
+     */
+    @FunctionalInterface
+    protected interface EntryWriter {
+
+        /**
+         * @param p The path of the file to write.
+         * @return The number of bytes written.
+         * @throws IOException If encountered.
+         */
+        long write(Path p) throws IOException;
+    }
+
+    /**
+     * Adds a directory for a new entry, writes the entry using w and then
+     * calls {@link #added(long, long)}. In multi-writer mode, if another process
+     * moves the root while the entry is being written, the entry is written
+     * again at its new path.
+     *
+     * @param w For writing the entry.
+     * @return The identifier of the entry added.
+     * @throws IOException If encountered.
+     */
+    protected long addEntry(EntryWriter w) throws IOException {
+        Path p;
+        long id;
+        synchronized (this) {
+            p = getEntryPath(addDir(), nextID);
+            id = nextID;
+            writing(id);
+        }
+        long n;
+        try {
+            try {
+                n = w.write(p);
+            } catch (NoSuchFileException e) {
+                n = w.write(relocate(id, e));
+            }
+        } catch (IOException | RuntimeException e) {
+            abandoned(id);
+            throw e;
+        }
+        added(id, n);
+        return id;
+    }
+
+    /**
+     * Called if writing the entry identified by id failed because its
+     * directory does not exist. In multi-writer mode this happens if another
+     * process moved the root (see {@link #addEntry(EntryWriter)}), so the
+     * directories for the entry are created again.
+     *
+     * @param id The identifier of the entry.
+     * @param e The exception thrown, which is rethrown if not in multi-writer
+     * mode.
+     * @return The path to write the entry to.
+     * @throws IOException If encountered.
+     */
+    protected Path relocate(long id, NoSuchFileException e)
+            throws IOException {
+        if (lease == null) {
+            throw e;
+        }
+        return getEntryPath(createDirs(id), id);
+    }
+
+    /**
+     * Adds a new entry which is written by streaming to the stream returned,
+     * as for {@link #openForAdd(long)} without splitting the entry into
+     * chunks.
+     *
+     * @return A stream to write the entry to which must be closed.
+     * @throws IOException If encountered.
+     */
+    public IO_CacheOutputStream openForAdd() throws IOException {
+        return openForAdd(Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds a new entry which is written by streaming to the stream returned.
+     * This is for entries too big to be held in memory: bytes are written
+     * through a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes, and the entry is
+     * split into files (chunks) of at most chunkSize bytes. The identifier of
+     * the entry is available from {@link IO_CacheOutputStream#getID()}, but
+     * the entry is only added (counted in the statistics, logged and passed to
+     * subscribers) once the stream is closed. Entries added like this are not
+     * deduplicated. An entry that is not split can also be read as for an
+     * entry added with {@link #add(ByteBuffer)}, and an Object serialized to
+     * the stream with an {@link java.io.ObjectOutputStream} can be read with
+     * {@link #get(long)}. Entries that are split should be read with
+     * {@link #openEntry(long)}.
+     *
+     * @param chunkSize The maximum number of bytes in a chunk.
+     * @return A stream to write the entry to which must be closed.
+     * @throws IOException If encountered.
+     */
+    public IO_CacheOutputStream openForAdd(long chunkSize) throws IOException {
+        Path p;
+        long id;
+        synchronized (this) {
+            p = getEntryPath(addDir(), nextID);
+            id = nextID;
+            writing(id);
+        }
+        try {
+            return new IO_CacheOutputStream(this, id, p, chunkSize,
+                    DEFAULT_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            abandoned(id);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the entry identified by id for streaming. The bytes of the entry
+     * are read through a buffer of {@link #DEFAULT_BUFFER_SIZE} bytes, from
+     * each of its chunks in turn.
+     *
+     * @param id The identifier of the entry.
+     * @return A stream to read the entry from which must be closed.
+     * @throws IOException If encountered.
+     */
+    public IO_CacheInputStream openEntry(long id) throws IOException {
+        return readEntry(id, p -> new IO_CacheInputStream(this, p,
+                DEFAULT_BUFFER_SIZE));
+    }
+
+    /**
+     * @param p The path of the first chunk of an entry, as returned by
+     * {@link #getEntryPath(long)}.
+     * @param i The index of a chunk.
+     * @return The path of chunk i of the entry. Chunk 0 is at p and each
+     * subsequent chunk is next to it with {@code "." + i} appended to the file
+     * name.
+     */
+    protected Path getChunkPath(Path p, int i) {
+        if (i == 0) {
+            return p;
+        }
+        return p.resolveSibling(p.getFileName().toString() + "." + i);
+    }
+
+    /**
+     * Reads the bytes of the entry identified by id into {@code dst}.
+     *
+     * @param id The identifier of the entry to read.
+     * @param dst The buffer to read into from its position. On return the
+     * position of dst is advanced by the number of bytes read.
+     * @return The number of bytes read.
+     * @throws IOException If encountered.
+     * @throws java.nio.BufferOverflowException If the entry is bigger than the
+     * number of bytes remaining in dst. In this case nothing is read.
+     */
+    public int get(long id, ByteBuffer dst) throws IOException {
+        return readEntry(id, p -> IO_Utilities.readBytes(p, dst));
+    }
+
+    /**
+     * @param id The identifier of the entry to read.
+     * @return The bytes of the entry identified by id.
+     * @throws IOException If encountered.
+     */
+    public byte[] getBytes(long id) throws IOException {
+        if (tier != null) {
+            byte[] r = tier.get(id);
+            if (r == null) {
+                // Not held if replaced or evicted while being read.
+                long e = tier.getEpoch();
+                r = readEntry(id, Files::readAllBytes);
+                tier.put(id, ByteBuffer.wrap(r), e);
+            }
+            return r;
+        }
+        return readEntry(id, Files::readAllBytes);
+    }
+
+    /**
+     * For reading an entry from the path of its file.
+     *
+     * @param <R> The type of what is read.
+     */
+    @FunctionalInterface
+    protected interface EntryReader<R> {
+
+        /**
+         * @param p The path of the file of the entry.
+         * @return What is read.
+         * @throws IOException If encountered.
+         */
+        R read(Path p) throws IOException;
+    }
+
+    /**
+     * Reads the entry identified by id using r. In multi-writer mode, if the
+     * file of the entry is not found and another process has moved the root
+     * (because it made the cache deeper), the entry is read again at its new
+     * path.
+     *
+     * @param <R> The type of what is read.
+     * @param id The identifier of the entry.
+     * @param r For reading the entry.
+     * @return What is read.
+     * @throws IOException If encountered.
+     */
+    protected <R> R readEntry(long id, EntryReader<R> r) throws IOException {
+        try {
+            return r.read(getEntryPath(id));
+        } catch (NoSuchFileException e) {
+            if (!refreshIfMoved()) {
+                throw e;
+            }
+            return r.read(getEntryPath(id));
+        }
+    }
+
+    /**
+     * In multi-writer mode, calls {@link #refresh()} while holding the lock on
+     * the control file.
+     *
+     * @return true if {@link #root} changed, false if it did not or if not in
+     * multi-writer mode.
+     * @throws IOException If encountered.
+     */
+    protected synchronized boolean refreshIfMoved() throws IOException {
+        if (lease == null) {
+            return false;
+        }
+        IO_Path r = root;
+        FileLock l = lease.lock();
+        try {
+            refresh();
+        } finally {
+            l.release();
+        }
+        return !root.equals(r);
+    }
+
+    /**
+     * Adds a and returns its identifier. The values are written as raw
+     * little-endian doubles so they can be read with
+     * {@link #getDoubles(long)} or without copying with
+     * {@link #mapDoubles(long)} or {@link #map(long, Arena)}.
+     *
+     * @param a The values to add.
+     * @return The identifier of the entry added.
+     * @throws IOException If encountered.
+     */
+    public long addDoubles(double[] a) throws IOException {
+        ByteBuffer b = allocate(a.length, Double.BYTES);
+        b.asDoubleBuffer().put(a);
+        return add(b);
+    }
+
+    /**
+     * Adds a and returns its identifier. The values are written as raw
+     * little-endian floats.
+     *
+     * @param a The values to add.
+     * @return The identifier of the entry added.
+     * @throws IOException If encountered.
+     */
+    public long addFloats(float[] a) throws IOException {
+        ByteBuffer b = allocate(a.length, Float.BYTES);
+        b.asFloatBuffer().put(a);
+        return add(b);
+    }
+
+    /**
+     * Adds a and returns its identifier. The values are written as raw
+     * little-endian ints.
+     *
+     * @param a The values to add.
+     * @return The identifier of the entry added.
+     * @throws IOException If encountered.
+     */
+    public long addInts(int[] a) throws IOException {
+        ByteBuffer b = allocate(a.length, Integer.BYTES);
+        b.asIntBuffer().put(a);
+        return add(b);
+    }
+
+    /**
+     * Adds a and returns its identifier. The values are written as raw
+     * little-endian longs.
+     *
+     * @param a The values to add.
+     * @return The identifier of the entry added.
+     * @throws IOException If encountered.
+     */
+    public long addLongs(long[] a) throws IOException {
+        ByteBuffer b = allocate(a.length, Long.BYTES);
+        b.asLongBuffer().put(a);
+        return add(b);
+    }
+
+    /**
+     * @param id The identifier of an entry added with
+     * {@link #addDoubles(double[])}.
+     * @return The values.
+     * @throws IOException If encountered.
+     */
+    public double[] getDoubles(long id) throws IOException {
+        ByteBuffer b = read(id, Double.BYTES);
+        double[] r = new double[b.remaining() / Double.BYTES];
+        b.asDoubleBuffer().get(r);
+        return r;
+    }
+
+    /**
+     * @param id The identifier of an entry added with
+     * {@link #addFloats(float[])}.
+     * @return The values.
+     * @throws IOException If encountered.
+     */
+    public float[] getFloats(long id) throws IOException {
+        ByteBuffer b = read(id, Float.BYTES);
+        float[] r = new float[b.remaining() / Float.BYTES];
+        b.asFloatBuffer().get(r);
+        return r;
+    }
+
+    /**
+     * @param id The identifier of an entry added with {@link #addInts(int[])}.
+     * @return The values.
+     * @throws IOException If encountered.
+     */
+    public int[] getInts(long id) throws IOException {
+        ByteBuffer b = read(id, Integer.BYTES);
+        int[] r = new int[b.remaining() / Integer.BYTES];
+        b.asIntBuffer().get(r);
+        return r;
+    }
+
+    /**
+     * @param id The identifier of an entry added with
+     * {@link #addLongs(long[])}.
+     * @return The values.
+     * @throws IOException If encountered.
+     */
+    public long[] getLongs(long id) throws IOException {
+        ByteBuffer b = read(id, Long.BYTES);
+        long[] r = new long[b.remaining() / Long.BYTES];
+        b.asLongBuffer().get(r);
+        return r;
+    }
+
+    /**
+     * @param id The identifier of an entry added with
+     * {@link #addDoubles(double[])}.
+     * @return A read-only view of the values mapped from the file of the
+     * entry, so they are not copied onto the heap.
+     * @throws IOException If encountered.
+     */
+    public DoubleBuffer mapDoubles(long id) throws IOException {
+        return map(id).asDoubleBuffer();
+    }
+
+    /**
+     * @param id The identifier of an entry added with
+     * {@link #addFloats(float[])}.
+     * @return A read-only view of the values mapped from the file of the
+     * entry.
+     * @throws IOException If encountered.
+     */
+    public FloatBuffer mapFloats(long id) throws IOException {
+        return map(id).asFloatBuffer();
+    }
+
+    /**
+     * @param id The identifier of an entry added with {@link #addInts(int[])}.
+     * @return A read-only view of the values mapped from the file of the
+     * entry.
+     * @throws IOException If encountered.
+     */
+    public IntBuffer mapInts(long id) throws IOException {
+        return map(id).asIntBuffer();
+    }
+
+    /**
+     * @param id The identifier of an entry added with
+     * {@link #addLongs(long[])}.
+     * @return A read-only view of the values mapped from the file of the
+     * entry.
+     * @throws IOException If encountered.
+     */
+    public LongBuffer mapLongs(long id) throws IOException {
+        return map(id).asLongBuffer();
+    }
+
+    /**
+     * Maps the file of the entry identified by id into memory. The mapping
+     * remains valid until the buffer is garbage collected. This is only for
+     * entries which are not split into chunks.
+     *
+     * @param id The identifier of an entry.
+     * @return A read-only little-endian buffer of the bytes of the entry.
+     * @throws IOException If encountered.
+     */
+    public ByteBuffer map(long id) throws IOException {
+        try (FileChannel fc = readEntry(id, p -> FileChannel.open(p, READ))) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Maps the file of the entry identified by id into memory as a segment
+     * whose lifetime is that of arena. Values of entries added with
+     * {@link #addDoubles(double[])} can be read from it using
+     * {@link #DOUBLE_LE} (and similarly for the other types). This is only for
+     * entries which are not split into chunks.
+     *
+     * @param id The identifier of an entry.
+     * @param arena The arena controlling the lifetime of the mapping.
+     * @return A read-only segment of the bytes of the entry.
+     * @throws IOException If encountered.
+     */
+    public MemorySegment map(long id, Arena arena) throws IOException {
+        try (FileChannel fc = readEntry(id, p -> FileChannel.open(p, READ))) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0L, fc.size(), arena);
+        }
+    }
+
+    /**
+     * @param n The number of values.
+     * @param width The number of bytes of each value.
+     * @return A little-endian buffer for n values.
+     */
+    private static ByteBuffer allocate(int n, int width) {
+        return ByteBuffer.allocate(Math.multiplyExact(n, width))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @param id The identifier of an entry.
+     * @param width The number of bytes of each value.
+     * @return A little-endian buffer of the bytes of the entry.
+     * @throws IOException If the number of bytes is not a multiple of width.
+     */
+    private ByteBuffer read(long id, int width) throws IOException {
+        byte[] a = getBytes(id);
+        if (a.length % width != 0) {
+            throw new IOException("Entry " + id + " has " + a.length
+                    + " bytes which is not a multiple of " + width);
+        }
+        return ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Records that the entry identified by id is being written, so that it is
+     * not passed to a new subscriber until it has been written. Must be called
+     * holding the lock on this.
+     *
+     * @param id The identifier of the entry.
+     */
+    private void writing(long id) {
+        if (writing == null) {
+            writing = new HashSet<>();
+        }
+        writing.add(id);
+    }
+
+    /**
+     * Called if writing the entry identified by id failed. The entry is not
+     * counted in the statistics, logged or passed to subscribers.
+     *
+     * @param id The identifier of the entry.
+     */
+    protected synchronized void abandoned(long id) {
+        if (writing != null) {
+            writing.remove(id);
+        }
+        if (abandoned == null) {
+            abandoned = new HashSet<>();
+        }
+        abandoned.add(id);
+    }
+
+    /**
+     * Called once the entry identified by id has been written. This updates
+     * {@link #stats}, appends id to the change log if it is enabled and passes
+     * id to any in-process subscribers.
+     *
+     * @param id The identifier of the entry added.
+     * @param n The number of bytes written.
+     * @throws IOException If encountered.
+     */
+    protected void added(long id, long n) throws IOException {
+        if (stats != null) {
+            stats.add(id, n);
+        }
+        FileChannel c = changeLog;
+        if (c != null) {
+            ByteBuffer b = ByteBuffer.allocate(Long.BYTES).putLong(id).flip();
+            // Hold the lock so the identifiers of concurrently added entries
+            // are not interleaved if a write is partial.
+            synchronized (c) {
+                while (b.hasRemaining()) {
+                    c.write(b);
+                }
+            }
+        }
+        List<IO_CacheTail> s;
+        synchronized (this) {
+            if (writing != null) {
+                writing.remove(id);
+            }
+            s = subscribers;
+        }
+        if (s != null) {
+            for (IO_CacheTail t : s) {
+                t.added(id);
+            }
+        }
+    }
+
+    /**
+     * Enables the change log of the cache so that other processes can learn
+     * about added entries using {@link #subscribe(Path, long, LongConsumer)}.
+     * Once enabled the change log remains enabled for the cache, including when
+     * it is reopened with {@link #IO_Cache(Path)}. Only entries added after it
+     * is first enabled are logged.
+     *
+     * @throws IOException If encountered.
+     */
+    public final void enableChangeLog() throws IOException {
+        if (changeLog == null) {
+            Files.createDirectories(getMetaDir());
+            changeLog = FileChannel.open(getMetaPath(CHANGES), CREATE, WRITE,
+                    APPEND);
+        }
+    }
+
+    /**
+     * Subscribes consumer to the identifiers of entries added to this cache
+     * by this instance. The identifiers of entries from fromID up to
+     * {@link #nextID} that have been written are passed to consumer before
+     * this returns, then the identifier of each entry added is passed to
+     * consumer by the thread that adds it as soon as it has been written. Each
+     * identifier is passed at most once: an entry still being written when
+     * this is called is passed once it has been written rather than by the
+     * replay. In multi-writer mode, identifiers in blocks leased by other
+     * processes are only replayed if their entries exist, and the structure
+     * is refreshed first in case another process has made the cache deeper.
+     *
+     * @param fromID Identifiers less than this are not passed to consumer.
+     * @param consumer The consumer.
+     * @return The subscription which can be closed to unsubscribe.
+     * @throws IOException If encountered.
+     */
+    public synchronized IO_CacheTail subscribe(long fromID,
+            LongConsumer consumer) throws IOException {
+        refreshIfMoved();
+        IO_CacheTail t = new IO_CacheTail(this, fromID, consumer);
+        Set<Long> skipped = new HashSet<>();
+        for (long id = Math.max(1L, fromID); id <= nextID; id++) {
+            if (writing != null && writing.contains(id)) {
+                skipped.add(id);
+            } else if (abandoned != null && abandoned.contains(id)) {
+                // Never added.
+            } else if (lease == null || Files.exists(getEntryPath(id))) {
+                t.accept(id);
+            }
+        }
+        t.replayed(nextID, skipped);
+        if (subscribers == null) {
+            subscribers = new CopyOnWriteArrayList<>();
+        }
+        subscribers.add(t);
+        return t;
+    }
+
+    /**
+     * Subscribes consumer to the identifiers of entries added to the cache at
+     * baseDir by any process that has enabled the change log with
+     * {@link #enableChangeLog()}. Identifiers are read from the change log in
+     * the order that the entries were added and passed to consumer on a
+     * separate thread.
+     *
+     * @param baseDir The base directory of the cache.
+     * @param fromID Identifiers less than this are not passed to consumer.
+     * @param consumer The consumer.
+     * @return The subscription which must be closed to stop the thread.
+     */
+    public static IO_CacheTail subscribe(Path baseDir, long fromID,
+            LongConsumer consumer) {
+        return IO_CacheTail.open(baseDir, fromID, consumer,
+                IO_CacheTail.DEFAULT_POLL_MILLIS);
+    }
+
+    /**
+     * @param t The in-process subscription to remove.
+     */
+    protected void unsubscribe(IO_CacheTail t) {
+        if (subscribers != null) {
+            subscribers.remove(t);
+        }
+    }
+
+    /**
+     * Closes any open resources and persists {@link #stats}. Any retention
+     * policy is no longer enforced. Any in-process subscriptions are closed. In
+     * multi-writer mode the unused part of the leased block of identifiers is
+     * handed back.
+     *
+     * @throws IOException If encountered.
+     */
+    @Override
+    public void close() throws IOException {
+        if (retention != null) {
+            retention.close();
+            retention = null;
+        }
+        flushStats();
+        synchronized (this) {
+            if (lease != null) {
+                FileLock l = lease.lock();
+                try {
+                    lease.give(leaseNext, leaseEnd);
+                    lease.write();
+                } finally {
+                    l.release();
+                }
+                leaseNext = leaseEnd;
+                lease.close();
+                lease = null;
+            }
+        }
+        if (subscribers != null) {
+            for (IO_CacheTail t : subscribers) {
+                t.close();
+            }
+        }
+        if (changeLog != null) {
+            changeLog.close();
+            changeLog = null;
+        }
+        if (classes != null) {
+            classes.close();
+            classes = null;
+        }
+    }
+
+    /**
+     * @return The path of the {@link #META} directory.
+     */
+    protected final Path getMetaDir() {
+        return Paths.get(baseDir.s, META);
+    }
+
+    /**
+     * @param fn The file name.
+     * @return The path of a file called fn in the {@link #META} directory.
+     */
+    protected final Path getMetaPath(String fn) {
+        return Paths.get(baseDir.s, META, fn);
+    }
+
+    /**
+     * @param id The identifier of an entry.
+     * @return The path of the file in which the entry identified by id is
+     * stored.
+     */
+    protected Path getEntryPath(long id) {
+        if (flat) {
+            return getDirPath(id, levels - 1).resolve(Long.toString(id));
+        }
+        return Paths.get(getPath(id).toString(), name);
+    }
+
+    /**
+     * @param dir The directory returned by {@link #addDir()} or
+     * {@link #createDirs(long)} for the entry identified by id.
+     * @param id The identifier of an entry.
+     * @return The path of the file in which the entry identified by id is
+     * stored.
+     */
+    protected Path getEntryPath(Path dir, long id) {
+        return dir.resolve(flat ? Long.toString(id) : name);
+    }
+
+    /**
+     * @param f The path of a file in the cache.
+     * @return The identifier of the entry that f is part of (as its first
+     * chunk or another chunk) or -1 if f is not part of an entry (e.g. it is a
+     * temporary file).
+     */
+    protected long getID(Path f) {
+        String fn = f.getFileName().toString();
+        String id;
+        if (flat) {
+            int i = fn.indexOf('.');
+            id = i < 0 ? fn : fn.substring(0, i);
+        } else {
+            if (!fn.equals(name) && !fn.startsWith(name + ".")) {
+                return -1L;
+            }
+            id = f.getParent().getFileName().toString();
+        }
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * @param f The path of a file in the cache.
+     * @return true if f is the first (or only) chunk of an entry.
+     */
+    protected boolean isEntry(Path f) {
+        String fn = f.getFileName().toString();
+        return flat ? getID(f) >= 0L && fn.indexOf('.') < 0 : fn.equals(name);
+    }
+
+    /**
+     * Enables the flat layout for a cache which has no entries yet. In this
+     * layout each entry is a file named by its identifier in the
+     * {@code lo_hi} directory at the level above the leaves, so there is no
+     * leaf directory for each entry. This halves the number of file system
+     * objects created for each entry. Once enabled the flat layout remains
+     * enabled for the cache, including when it is reopened with
+     * {@link #IO_Cache(Path)}. Existing caches can be converted with
+     * {@link #migrateToFlat(Path, int)}.
+     *
+     * @throws IOException If encountered.
+     * @throws IllegalStateException If the cache has entries.
+     */
+    public final synchronized void enableFlatLayout() throws IOException {
+        if (flat) {
+            return;
+        }
+        if (nextID != 0L) {
+            throw new IllegalStateException("The cache has entries, use "
+                    + "migrateToFlat.");
+        }
+        Files.deleteIfExists(Paths.get(lps[levels - 1].s, "0"));
+        Files.createDirectories(getMetaDir());
+        Files.write(getMetaPath(FLAT), new byte[0]);
+        flat = true;
+    }
+
+    /**
+     * @return true if the cache has a flat layout.
+     */
+    public boolean isFlat() {
+        return flat;
+    }
+
+    /**
+     * Converts the cache at baseDir to the flat layout (see
+     * {@link #enableFlatLayout()}). The directories at the level above the
+     * leaves are converted in parallel by up to parallelism threads. The
+     * cache must not be in use while it is converted. Each leaf directory is
+     * converted by renaming it (with {@link #MIGRATING} appended), moving the
+     * chunks of the entry out of it and then deleting it, so if the conversion
+     * is interrupted it can be resumed by calling this again. The marker that
+     * the cache has a flat layout is only written once everything has been
+     * converted.
+     *
+     * @param baseDir The base directory of the cache.
+     * @param parallelism The number of threads to use.
+     * @return The number of entries converted.
+     * @throws IOException If encountered.
+     */
+    public static long migrateToFlat(Path baseDir, int parallelism)
+            throws IOException {
+        Path meta = Paths.get(baseDir.toString(), META);
+        if (Files.exists(meta.resolve(FLAT))) {
+            return 0L;
+        }
+        String n = baseDir.getFileName().toString();
+        List<Path> l = IO_Utilities.getList(baseDir);
+        l.removeIf(x -> x.getFileName().toString().equals(META));
+        if (l.size() != 1) {
+            throw new IOException("Expected one root directory in " + baseDir);
+        }
+        LongAdder count = new LongAdder();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(new Migration(l.get(0), n, count)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof UncheckedIOException u) {
+                throw u.getCause();
+            }
+            throw new IOException(c);
+        } finally {
+            pool.shutdown();
+        }
+        Files.createDirectories(meta);
+        Files.write(meta.resolve(FLAT), new byte[0]);
+        // The statistics are recalculated when next needed.
+        Files.deleteIfExists(meta.resolve(STATS));
+        return count.sum();
+    }
+
+    /**
+     * For converting a directory of a cache to the flat layout. Directories
+     * containing {@code lo_hi} directories are split into a task for each, and
+     * the directories at the level above the leaves are converted one entry at
+     * a time.
+     */
+    private static class Migration extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The directory to convert.
+         */
+        private final transient Path dir;
+
+        /**
+         * The name of the cache which is the name of each entry file in the
+         * layout being converted from.
+         */
+        private final String name;
+
+        /**
+         * For counting the entries converted.
+         */
+        private final LongAdder count;
+
+        /**
+         * @param dir The directory to convert.
+         * @param name The name of the cache.
+         * @param count For counting the entries converted.
+         */
+        Migration(Path dir, String name, LongAdder count) {
+            this.dir = dir;
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<Migration> tasks = new ArrayList<>();
+                List<Path> leaves = new ArrayList<>();
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+                    for (Path p : ds) {
+                        if (!Files.isDirectory(p)) {
+                            continue;
+                        }
+                        if (p.getFileName().toString().contains(SEP)) {
+                            tasks.add(new Migration(p, name, count));
+                        } else {
+                            leaves.add(p);
+                        }
+                    }
+                }
+                if (!tasks.isEmpty()) {
+                    invokeAll(tasks);
+                }
+                for (Path p : leaves) {
+                    migrate(p);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Converts the leaf directory at p.
+         *
+         * @param p The leaf directory.
+         * @throws IOException If encountered.
+         */
+        private void migrate(Path p) throws IOException {
+            String fn = p.getFileName().toString();
+            String id = fn.endsWith(MIGRATING)
+                    ? fn.substring(0, fn.length() - MIGRATING.length()) : fn;
+            Path m = p;
+            if (!fn.endsWith(MIGRATING)) {
+                m = p.resolveSibling(id + MIGRATING);
+                Files.move(p, m, StandardCopyOption.ATOMIC_MOVE);
+            }
+            boolean entry = false;
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(m)) {
+                for (Path f : ds) {
+                    String cn = f.getFileName().toString();
+                    if (cn.equals(name)) {
+                        Files.move(f, dir.resolve(id),
+                                StandardCopyOption.ATOMIC_MOVE);
+                        entry = true;
+                    } else if (cn.startsWith(name + ".")) {
+                        Files.move(f, dir.resolve(id
+                                + cn.substring(name.length())),
+                                StandardCopyOption.ATOMIC_MOVE);
+                    } else {
+                        // A left over temporary file.
+                        Files.delete(f);
+                    }
+                }
+            }
+            Files.delete(m);
+            if (entry) {
+                count.increment();
+            }
+        }
+    }
+
+    /**
+     * Adds a new directory to the cache for storing item identified by
+     * {@link #nextID}.
+     *
+     * @return Path of new directory added.
+     * @throws IOException If encountered.
+     */
+    protected synchronized Path addDir() throws IOException {
+        if (lease != null) {
+            return addDirLeased();
+        }
+        nextID++;
+        if (nextID % rangeL == 0) {
+            // Grow
+            if (nextID == ranges.get(0)) {
+                // Grow deeper.
+                growDeeper();
+                lps = new IO_Path[levels];
+                lps[0] = root;
+                // Add width.
+                int level = levels - 2;
+                long range = ranges.get(level);
+                long dirCount = dirCounts.get(level);
+                // Add directories up to the new highest leaf
+                long l = dirCount * range;
+                for (int lvl = 1; lvl < levels; lvl++) {
+                    long u = l + ranges.get(lvl) - 1;
+                    Path p = Paths.get(lps[lvl - 1].s, getName(l, u));
+                    Files.createDirectory(p);
+                    //System.out.println(p.toString());
+                    addToList(dirCounts, lvl, 1L);
+                    lps[lvl] = new IO_Path(p);
+                }
+            } else {
+                // Add width as needed.
+                for (int lvl = 1; lvl < levels; lvl++) {
+                    long range = ranges.get(lvl);
+                    if (nextID % range == 0) {
+                        // Add a new directory.
+                        long dirCount = dirCounts.get(lvl);
+                        long l = dirCount * range;
+                        long u = l + range - 1;
+                        Path p = Paths.get(lps[lvl - 1].s, getName(l, u));
+                        Files.createDirectory(p);
+                        //System.out.println(p.toString());
+                        addToList(dirCounts, lvl, 1L);
+                        lps[lvl] = new IO_Path(p);
+                        // Add other new directories up to the new highest leaf
+                        for (int lvl2 = lvl + 1; lvl2 < levels; lvl2++) {
+                            u = l + ranges.get(lvl2) - 1;
+                            p = Paths.get(lps[lvl2 - 1].s, getName(l, u));
+                            Files.createDirectory(p);
+                            //System.out.println(p.toString());
+                            addToList(dirCounts, lvl2, 1L);
+                            lps[lvl2] = new IO_Path(p);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        if (flat) {
+            return lps[levels - 1].getPath();
+        }
+        // Add to the currentDir
+        Path p = Files.createDirectory(
+                Paths.get(lps[levels - 1].s, Long.toString(nextID)));
+        return p;
+    }
+
+    /**
+     * @return The statistics for the cache. If these are not known (for a cache
+     * created before they were persisted) they are initialised by walking the
+     * cache once.
+     * @throws IOException If encountered.
+     */
+    public synchronized IO_CacheStats getStats() throws IOException {
+        if (stats == null) {
+            IO_CacheStats s = new IO_CacheStats(rangeL);
+            long[] first = {Long.MAX_VALUE};
+            Files.walkFileTree(root.getPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path f,
+                        BasicFileAttributes a) {
+                    long id = getID(f);
+                    if (id < 0L) {
+                        // Not part of an entry.
+                    } else if (isEntry(f)) {
+                        s.add(id, 1L, a.size());
+                        first[0] = Math.min(first[0], id);
+                    } else {
+                        s.add(id, 0L, a.size());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            s.setFirstID(first[0] == Long.MAX_VALUE ? 0L : first[0]);
+            stats = s;
+        }
+        return stats;
+    }
+
+    /**
+     * Writes {@link #stats} to the {@link #META} directory if they are known.
+     * This is done when the cache is closed, but can be called at other times
+     * so that the statistics persisted are more up to date.
+     *
+     * @throws IOException If encountered.
+     */
+    public synchronized void flushStats() throws IOException {
+        if (stats != null) {
+            Files.createDirectories(getMetaDir());
+            stats.write(getMetaPath(STATS));
+        }
+    }
+
+    /**
+     * Calculates the number of entries and the number of bytes they take up
+     * for the identifiers from lower to upper. Whole {@code lo_hi} directories
+     * in the range are accounted for from the aggregates in {@link #stats}
+     * (see {@link IO_CacheStats#get(long, long)}). Any entries in the range
+     * that are in a directory at the level above the leaves that is only
+     * partly in the range are looked at individually, so there are at most
+     * {@code 2 * (range - 1)} of these.
+     *
+     * @param lower The lower identifier (inclusive).
+     * @param upper The upper identifier (exclusive).
+     * @return {count, bytes}
+     * @throws IOException If encountered.
+     */
+    public long[] getSize(long lower, long upper) throws IOException {
+        IO_CacheStats s = getStats();
+        long[] r = new long[2];
+        if (upper <= lower) {
+            return r;
+        }
+        long l = lower - (lower % rangeL);
+        long u = upper - (upper % rangeL);
+        if (l == u) {
+            addSizes(r, lower, upper);
+            return r;
+        }
+        long[] a = s.get(l, u);
+        r[0] = a[0];
+        r[1] = a[1];
+        addSizes(r, u, upper);
+        long[] b = new long[2];
+        addSizes(b, l, lower);
+        r[0] -= b[0];
+        r[1] -= b[1];
+        return r;
+    }
+
+    /**
+     * Adds the number of entries and the number of bytes in the leaves for the
+     * identifiers from lower to upper to r.
+     *
+     * @param r The {count, bytes} to add to.
+     * @param lower The lower identifier (inclusive).
+     * @param upper The upper identifier (exclusive).
+     * @throws IOException If encountered.
+     */
+    protected void addSizes(long[] r, long lower, long upper)
+            throws IOException {
+        long first = getStats().getFirstID();
+        for (long id = Math.max(lower, first); id < upper; id++) {
+            Path e;
+            synchronized (this) {
+                if (id > nextID && lease == null) {
+                    return;
+                }
+                e = getDirPath(id, levels - 1).resolve(Long.toString(id));
+                if (!flat) {
+                    e = e.resolve(name);
+                }
+            }
+            for (int i = 0;; i++) {
+                try {
+                    r[1] += Files.size(getChunkPath(e, i));
+                } catch (NoSuchFileException x) {
+                    break;
+                }
+                if (i == 0) {
+                    r[0]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts enforcing retention policy r every period milliseconds in the
+     * background until this is closed (or another policy is set).
+     *
+     * @param r The retention policy.
+     * @param period The period in milliseconds.
+     * @throws IOException If encountered initialising {@link #stats}.
+     * @throws IllegalStateException If in multi-writer mode.
+     */
+    public void setRetention(IO_CacheRetention r, long period)
+            throws IOException {
+        checkNotMultiWriter();
+        getStats();
+        if (retention != null) {
+            retention.close();
+        }
+        retention = r;
+        r.start(this, period);
+    }
+
+    /**
+     * Eviction and retention are not supported in multi-writer mode: the
+     * oldest directories may be in blocks leased by other processes that are
+     * still writing to them, and {@link #stats} only accounts for entries
+     * added by this process.
+     *
+     * @throws IllegalStateException If in multi-writer mode.
+     */
+    protected void checkNotMultiWriter() {
+        if (lease != null) {
+            throw new IllegalStateException("multi-writer");
+        }
+    }
+
+    /**
+     * Evicts the oldest entries as for {@link #evict(long, long)} with no
+     * bytes needed.
+     *
+     * @param need The number of entries that need evicting.
+     * @return The number of entries evicted or -1 if there was nothing that
+     * could be evicted.
+     * @throws IOException If encountered.
+     * @throws IllegalStateException If in multi-writer mode.
+     */
+    public long evict(long need) throws IOException {
+        return evict(need, 0L);
+    }
+
+    /**
+     * Evicts the oldest entries by moving the {@code lo_hi} directory
+     * containing them out of the cache in one operation and then deleting it.
+     * The smallest such directory (at the level above the leaves) is evicted,
+     * unless a larger directory starting with the same entry has no more than
+     * needEntries entries or no more than needBytes bytes, in which case the
+     * largest such directory is evicted. The sizes of directories are got from
+     * {@link #stats}. The directory containing {@link #nextID} (and any
+     * directory above it) is never evicted.
+     *
+     * @param needEntries The number of entries that need evicting.
+     * @param needBytes The number of bytes that need evicting.
+     * @return The number of entries evicted or -1 if there was nothing that
+     * could be evicted.
+     * @throws IOException If encountered.
+     * @throws IllegalStateException If in multi-writer mode.
+     */
+    public long evict(long needEntries, long needBytes) throws IOException {
+        checkNotMultiWriter();
+        IO_CacheStats s = getStats();
+        long first = s.getFirstID();
+        Path d;
+        int k;
+        long index;
+        Path t = getMetaPath(TRASH);
+        synchronized (this) {
+            long active = nextID - (nextID % rangeL);
+            long lo = first - (first % rangeL);
+            if (lo + rangeL > active) {
+                return -1L;
+            }
+            int lvl = levels - 1;
+            while (lvl > 1) {
+                long r = ranges.get(lvl - 1);
+                if (lo % r != 0 || lo + r > active) {
+                    break;
+                }
+                long[] cb = s.get(levels - lvl + 1, lo / r);
+                if (cb[0] > needEntries && cb[1] > needBytes) {
+                    break;
+                }
+                lvl--;
+            }
+            d = getDirPath(lo, lvl);
+            k = levels - lvl;
+            index = lo / ranges.get(lvl);
+            Files.createDirectories(t);
+            t = t.resolve(d.getFileName().toString());
+            if (Files.exists(d)) {
+                Files.move(d, t, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                t = null;
+            }
+        }
+        long[] cb = s.evicted(k, index);
+        if (tier != null) {
+            tier.remove(index * s.getRange(k), (index + 1) * s.getRange(k));
+        }
+        if (t != null) {
+            IO_Utilities.deleteTree(t, 1, false);
+        }
+        return cb[0];
+    }
+
+    /**
+     * @return The time in milliseconds since the epoch when the directory (at
+     * the level above the leaves) containing the oldest entries that have not
+     * been evicted was last modified, or -1 if that directory does not exist.
+     * @throws IOException If encountered.
+     */
+    public long getOldestModifiedTime() throws IOException {
+        long first = getStats().getFirstID();
+        Path d;
+        synchronized (this) {
+            d = getDirPath(first, levels - 1);
+        }
+        try {
+            return Files.getLastModifiedTime(d).toMillis();
+        } catch (NoSuchFileException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Calculates and returns the current path of the {@code lo_hi} directory
+     * at level lvl that contains (or would contain) the element identified by
+     * id.
+     *
+     * @param id The identifier.
+     * @param lvl The level from 0 (the root) to {@code levels - 1} (the level
+     * above the leaves).
+     * @return The path of the directory.
+     */
+    protected synchronized Path getDirPath(long id, int lvl) {
+        Path p = root.getPath();
+        for (int l = 1; l <= lvl; l++) {
+            long range = ranges.get(l);
+            long lower = (id / range) * range;
+            p = p.resolve(getName(lower, lower + range - 1L));
+        }
+        return p;
+    }
+
+    /**
+     * Makes the cache one level deeper by creating a new root directory and
+     * moving the current root directory into it.
+     *
+     * @throws IOException If encountered.
+     */
+    protected void growDeeper() throws IOException {
+        IO_Path r = root;
+        ranges.add(0, nextRange);
+        root = new IO_Path(Paths.get(baseDir.s, getName(0L, nextRange - 1)));
+        initNextRange();
+        Files.createDirectory(root.getPath());
+        //System.out.println(root.toString());
+        Path target = Paths.get(root.s, r.getFileName().toString());
+        Files.move(r.getPath(), target);
+        dirCounts.add(0, 1L);
+        levels++;
+    }
+
+    /**
+     * Enables multi-writer mode in which several processes can add to the
+     * cache at the same time. Each process leases blocks of identifiers under
+     * an exclusive lock on a control file in the {@link #META} directory, then
+     * adds entries with identifiers from its block without any further
+     * coordination. Unused identifiers are handed back by {@link #close()} and
+     * are leased again later. Lock contention is therefore paid once per block
+     * rather than once per entry.
+     *
+     * In this mode {@link #nextID} is the identifier most recently used by
+     * this instance, and as identifiers are not used in order across processes
+     * there may be gaps where identifiers were leased but not used. Every
+     * process writing to the cache must use this mode, and there should be one
+     * instance per process. Once enabled, this mode remains enabled for the
+     * cache, including when it is reopened with {@link #IO_Cache(Path)}.
+     * Eviction and retention are not supported in this mode (see
+     * {@link #checkNotMultiWriter()}).
+     *
+     * @param blockSize The number of identifiers to lease at a time.
+     * @throws IOException If encountered.
+     * @throws IllegalStateException If a retention policy is set.
+     */
+    public final void enableMultiWriter(long blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize < 1");
+        }
+        if (retention != null) {
+            throw new IllegalStateException("retention");
+        }
+        this.blockSize = blockSize;
+        if (lease == null) {
+            Files.createDirectories(getMetaDir());
+            lease = new IO_CacheLease(getMetaPath(LEASE));
+            leaseNext = 0L;
+            leaseEnd = 0L;
+        }
+    }
+
+    /**
+     * Adds a directory for the next identifier in the currently leased block,
+     * leasing a new block first if necessary. The lock on the control file is
+     * only ever taken while holding the lock on this, as a JVM may hold only
+     * one lock on a file.
+     *
+     * @return Path of new directory added.
+     * @throws IOException If encountered.
+     */
+    protected synchronized Path addDirLeased() throws IOException {
+        if (leaseNext >= leaseEnd) {
+            FileLock l = lease.lock();
+            try {
+                refresh();
+                if (lease.isNew()) {
+                    Path h = findHighestLeaf();
+                    lease.setNextFree(h == null ? nextID + 1L : Long.parseLong(
+                            h.getFileName().toString()) + 1L);
+                }
+                long[] r = lease.take(blockSize);
+                lease.write();
+                // Only grow deeper while holding the lock.
+                while (r[1] - 1L >= ranges.get(0)) {
+                    growDeeper();
+                }
+                leaseNext = r[0];
+                leaseEnd = r[1];
+            } finally {
+                l.release();
+            }
+        }
+        nextID = leaseNext++;
+        return createDirs(nextID);
+    }
+
+    /**
+     * Creates the directory for the entry identified by id and any missing
+     * directories between it and {@link #root}. {@link #root} itself is never
+     * created. If another process has moved {@link #root} (because it made the
+     * cache deeper) then {@link #refresh()} is called under the lock and the
+     * directories are created in the new structure.
+     *
+     * @param id The identifier.
+     * @return The directory for the entry identified by id.
+     * @throws IOException If encountered.
+     */
+    protected synchronized Path createDirs(long id) throws IOException {
+        while (true) {
+            try {
+                Path p = flat ? getDirPath(id, levels - 1) : getPath(id);
+                int n = p.getNameCount() - root.getNameCount();
+                Path d = root.getPath();
+                for (int i = p.getNameCount() - n; i < p.getNameCount(); i++) {
+                    d = d.resolve(p.getName(i).toString());
+                    try {
+                        Files.createDirectory(d);
+                    } catch (FileAlreadyExistsException e) {
+                        // Created already.
+                    }
+                }
+                return p;
+            } catch (NoSuchFileException e) {
+                if (lease == null) {
+                    throw e;
+                }
+                FileLock l = lease.lock();
+                try {
+                    refresh();
+                } finally {
+                    l.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads {@link #root} from the file system and updates {@link #levels},
+     * {@link #ranges} and {@link #nextRange} to match. In multi-writer mode
+     * this should be called while holding the lock on the control file as
+     * other processes only change the root while holding that lock.
+     *
+     * @throws IOException If encountered.
+     */
+    protected synchronized void refresh() throws IOException {
+        List<Path> l = IO_Utilities.getList(baseDir.getPath());
+        l.removeIf(x -> x.getFileName().toString().equals(META));
+        if (l.size() != 1) {
+            throw new IOException("Expected one root directory in " + baseDir);
+        }
+        String fn = l.get(0).getFileName().toString();
+        long r = Long.parseLong(fn.split(SEP)[1]) + 1L;
+        ArrayList<Long> rs = new ArrayList<>();
+        for (long x = rangeL; x <= r; x = Math.multiplyExact(x, rangeL)) {
+            rs.add(0, x);
+        }
+        root = new IO_Path(l.get(0));
+        ranges = rs;
+        levels = rs.size();
+        initNextRange();
+    }
+
+    /**
+     * Add {@code v} to the value of {@code l} at position {@code p}. A generic
+     * version of this code is in uk.ac.leeds.ccg.math.util.Math_Collections
+     *
+     * @param l The list to add to.
+     * @param pos The position in the list to add to.
+     * @param v The value to add to the existing value in {@code l} at position
+     * {@code p}.
+     */
+    private void addToList(List<Long> l, int pos, Long v) {
+        Long v0 = l.get(pos);
+        l.remove(pos);
+        l.add(pos, Math.addExact(v, v0));
+    }
+
+    /**
+     * @return a copy of {@link #baseDir}.
+     */
+    public IO_Path getBaseDir() {
+        return new IO_Path(baseDir);
+    }
+
+    /**
+     * Tests the integrity of the cache from its base directory.
+     *
+     * @return true if the integrity seems fine.
+     * @throws java.io.IOException If the cache lacks integrity.
+     */
+    public final boolean testIntegrity() throws IOException {
+        try ( Stream<Path> paths = Files.walk(root.getPath())) {
+            boolean ok;
+            try {
+                ok = paths.allMatch(path -> testPath(path));
+            } catch (NumberFormatException e) {
+                throw new IOException("Some paths are not OK as they contain "
+                        + "leaf file names that cannot be converted to a "
+                        + "Long.");
+            }
+            if (!ok) {
+                throw new IOException("Some paths are not OK as they are not "
+                        + "leaf files and are not not directories.");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param p The path to test.
+     * @return true if p is not a directory or if there is a directory at p and
+     * the filename contains {@link #SEP} or can be readily converted to a Long.
+     * @throws NumberFormatException if p is a directory, does not contain
+     * {@link SEP} and cannot be readily converted to a Long.
+     */
+    protected final boolean testPath(Path p) {
+        String fn = p.getFileName().toString();
+        if (Files.isDirectory(p)) {
+            if (fn.contains(SEP)) {
+                return true;
             } else {
                 Long.valueOf(fn);
                 return true;
@@ -860,15 +2801,15 @@ public class IO_Cache implements Serializable {
     protected final Path findHighestLeaf() throws IOException {
         Path hd = getHighestDir();
         List<Path> l = IO_Utilities.getList(hd);
-        if (l.size() == 1) {
-            return l.get(0);
-        } else {
-            TreeMap<Long, Path> s = new TreeMap<>();
-            l.forEach((p) -> {
+        TreeMap<Long, Path> s = new TreeMap<>();
+        l.forEach((p) -> {
+            try {
                 s.put(Long.valueOf(p.getFileName().toString()), p);
-            });
-            return s.lastEntry().getValue();
-        }
+            } catch (NumberFormatException e) {
+                // Not a leaf, e.g. a chunk or temporary file.
+            }
+        });
+        return s.isEmpty() ? null : s.lastEntry().getValue();
     }
 
     /**
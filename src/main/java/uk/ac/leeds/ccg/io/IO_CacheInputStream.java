@@ -0,0 +1,133 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * For streaming an entry out of an {@link IO_Cache} without it all being held
+ * in memory. The chunks of the entry (see {@link IO_CacheOutputStream}) are
+ * read in turn through a buffer of a fixed size. Instances are created by
+ * {@link IO_Cache#openEntry(long)}.
+ *
+ * @version 1.0
+ */
+public class IO_CacheInputStream extends InputStream {
+
+    /**
+     * The cache.
+     */
+    protected final IO_Cache cache;
+
+    /**
+     * The path of the first chunk of the entry.
+     */
+    protected final Path path;
+
+    /**
+     * The size of the buffer.
+     */
+    protected final int bufferSize;
+
+    /**
+     * The stream for the current chunk or null if there are no more chunks.
+     */
+    private InputStream is;
+
+    /**
+     * The index of the current chunk.
+     */
+    private int chunk;
+
+    /**
+     * Create a new instance and open the first chunk.
+     *
+     * @param cache The cache.
+     * @param path The path of the first chunk of the entry.
+     * @param bufferSize The size of the buffer.
+     * @throws IOException If encountered, including
+     * {@link NoSuchFileException} if there is no such entry.
+     */
+    protected IO_CacheInputStream(IO_Cache cache, Path path, int bufferSize)
+            throws IOException {
+        this.cache = cache;
+        this.path = path;
+        this.bufferSize = bufferSize;
+        is = new BufferedInputStream(Files.newInputStream(path), bufferSize);
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (is != null) {
+            int r = is.read();
+            if (r >= 0) {
+                return r;
+            }
+            next();
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (is != null) {
+            int r = is.read(b, off, len);
+            if (r >= 0) {
+                return r;
+            }
+            next();
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return is == null ? 0 : is.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (is != null) {
+            is.close();
+            is = null;
+        }
+    }
+
+    /**
+     * Closes the current chunk and opens the next if there is one.
+     *
+     * @throws IOException If encountered.
+     */
+    private void next() throws IOException {
+        is.close();
+        is = null;
+        chunk++;
+        try {
+            is = new BufferedInputStream(Files.newInputStream(
+                    cache.getChunkPath(path, chunk)), bufferSize);
+        } catch (NoSuchFileException e) {
+            // No more chunks.
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * For leasing blocks of identifiers of an {@link IO_Cache} to processes that
+ * write to it at the same time. The state is kept in a control file which is
+ * only read and written while holding an exclusive {@link FileLock} on it.
+ * The state is the next identifier that has never been leased and a list of
+ * ranges of identifiers that were leased but handed back unused.
+ *
+ * A process only takes the lock when it needs a new block or when it hands
+ * back what is left of its block, so lock contention is paid once per block
+ * rather than once per entry. Within a process the methods are synchronized,
+ * but only one instance should be open on a control file in each process (see
+ * {@link FileChannel#lock()}).
+ *
+ * @version 1.0
+ */
+public class IO_CacheLease implements Closeable {
+
+    /**
+     * The channel for the control file.
+     */
+    protected final FileChannel fc;
+
+    /**
+     * The next identifier that has never been leased. This is only valid while
+     * the lock is held.
+     */
+    protected long nextFree;
+
+    /**
+     * Ranges of identifiers that were handed back unused. Each element is a
+     * pair {lower, upper} with lower inclusive and upper exclusive. This is
+     * only valid while the lock is held.
+     */
+    protected final List<long[]> free;
+
+    /**
+     * Set to true when the lock is taken if the control file was empty.
+     */
+    protected boolean isNew;
+
+    /**
+     * Create a new instance opening (and if necessary creating) the control
+     * file at f.
+     *
+     * @param f The path of the control file.
+     * @throws IOException If encountered.
+     */
+    public IO_CacheLease(Path f) throws IOException {
+        fc = FileChannel.open(f, CREATE, READ, WRITE);
+        free = new ArrayList<>();
+    }
+
+    /**
+     * Takes an exclusive lock on the control file (waiting for it if another
+     * process holds it) and reads the state. The lock must not already be
+     * held in this process, so callers share a JVM-level lock around this
+     * (the {@link IO_Cache} that owns this).
+     *
+     * @return The lock which must be released (closed).
+     * @throws IOException If encountered.
+     */
+    public synchronized FileLock lock() throws IOException {
+        FileLock l = fc.lock();
+        try {
+            read();
+        } catch (IOException | RuntimeException e) {
+            l.release();
+            throw e;
+        }
+        return l;
+    }
+
+    /**
+     * Takes a range of identifiers. Handed back ranges are used first. The
+     * lock must be held and {@link #write()} should be called afterwards.
+     *
+     * @param blockSize The maximum number of identifiers to take.
+     * @return A pair {lower, upper} with lower inclusive and upper exclusive.
+     */
+    public synchronized long[] take(long blockSize) {
+        long[] r;
+        if (free.isEmpty()) {
+            r = new long[]{nextFree, Math.addExact(nextFree, blockSize)};
+            nextFree = r[1];
+        } else {
+            long[] f = free.get(0);
+            if (f[1] - f[0] > blockSize) {
+                r = new long[]{f[0], f[0] + blockSize};
+                f[0] = r[1];
+            } else {
+                r = f;
+                free.remove(0);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Hands back a range of unused identifiers. The lock must be held and
+     * {@link #write()} should be called afterwards.
+     *
+     * @param lower The lower identifier (inclusive).
+     * @param upper The upper identifier (exclusive).
+     */
+    public synchronized void give(long lower, long upper) {
+        if (lower >= upper) {
+            return;
+        }
+        if (upper == nextFree) {
+            nextFree = lower;
+            int last = free.size() - 1;
+            if (last >= 0 && free.get(last)[1] == nextFree) {
+                nextFree = free.remove(last)[0];
+            }
+            return;
+        }
+        int i = 0;
+        while (i < free.size() && free.get(i)[0] < lower) {
+            i++;
+        }
+        free.add(i, new long[]{lower, upper});
+        // Merge with neighbours.
+        if (i + 1 < free.size() && free.get(i + 1)[0] == upper) {
+            free.get(i)[1] = free.remove(i + 1)[1];
+        }
+        if (i > 0 && free.get(i - 1)[1] == lower) {
+            free.get(i - 1)[1] = free.remove(i)[1];
+        }
+    }
+
+    /**
+     * Reads the state from the control file.
+     *
+     * @throws IOException If encountered.
+     */
+    protected void read() throws IOException {
+        free.clear();
+        long size = fc.size();
+        isNew = size == 0;
+        if (isNew) {
+            nextFree = 0L;
+            return;
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) size);
+        while (b.hasRemaining()) {
+            if (fc.read(b, b.position()) < 0) {
+                break;
+            }
+        }
+        b.flip();
+        nextFree = b.getLong();
+        int n = b.getInt();
+        for (int i = 0; i < n; i++) {
+            free.add(new long[]{b.getLong(), b.getLong()});
+        }
+    }
+
+    /**
+     * Writes the state to the control file and forces it to the storage
+     * device. The lock must be held.
+     *
+     * @throws IOException If encountered.
+     */
+    public synchronized void write() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(Long.BYTES + Integer.BYTES
+                + free.size() * 2 * Long.BYTES);
+        b.putLong(nextFree);
+        b.putInt(free.size());
+        for (long[] f : free) {
+            b.putLong(f[0]).putLong(f[1]);
+        }
+        b.flip();
+        while (b.hasRemaining()) {
+            fc.write(b, b.position());
+        }
+        fc.truncate(b.limit());
+        fc.force(false);
+        isNew = false;
+    }
+
+    /**
+     * @return {@link #nextFree}.
+     */
+    public synchronized long getNextFree() {
+        return nextFree;
+    }
+
+    /**
+     * @param nextFree What {@link #nextFree} is set to.
+     */
+    public synchronized void setNextFree(long nextFree) {
+        this.nextFree = nextFree;
+    }
+
+    /**
+     * @return {@link #isNew}.
+     */
+    public synchronized boolean isNew() {
+        return isNew;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fc.close();
+    }
+}
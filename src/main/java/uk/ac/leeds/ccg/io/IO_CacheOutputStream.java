@@ -0,0 +1,285 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * For streaming an entry into an {@link IO_Cache} without it all being held in
+ * memory. Bytes are written through a buffer of a fixed size. Optionally the
+ * entry is split across several files (chunks) of at most a given size, named
+ * as by {@link IO_Cache#getChunkPath(Path, int)}. The entry is only added
+ * (counted in the statistics, logged and passed to subscribers) when this is
+ * closed without a failure. If writing fails, or if {@link #abort()} is
+ * called, the chunks written are deleted and the entry is abandoned instead.
+ * Instances are created by {@link IO_Cache#openForAdd(long)}.
+ *
+ * @version 1.0
+ */
+public class IO_CacheOutputStream extends OutputStream {
+
+    /**
+     * The cache.
+     */
+    protected final IO_Cache cache;
+
+    /**
+     * The identifier of the entry.
+     */
+    protected final long id;
+
+    /**
+     * The path of the first chunk of the entry.
+     */
+    protected Path path;
+
+    /**
+     * The maximum number of bytes in a chunk.
+     */
+    protected final long chunkSize;
+
+    /**
+     * The size of the buffer.
+     */
+    protected final int bufferSize;
+
+    /**
+     * The number of bytes written.
+     */
+    protected long count;
+
+    /**
+     * The stream for the current chunk.
+     */
+    private OutputStream os;
+
+    /**
+     * The index of the current chunk.
+     */
+    private int chunk;
+
+    /**
+     * The number of bytes written to the current chunk.
+     */
+    private long chunkCount;
+
+    /**
+     * Set when closed.
+     */
+    private boolean closed;
+
+    /**
+     * Set if writing failed.
+     */
+    private boolean failed;
+
+    /**
+     * Create a new instance and open the first chunk.
+     *
+     * @param cache The cache.
+     * @param id The identifier of the entry.
+     * @param path The path of the first chunk of the entry.
+     * @param chunkSize The maximum number of bytes in a chunk.
+     * @param bufferSize The size of the buffer.
+     * @throws IOException If encountered.
+     */
+    protected IO_CacheOutputStream(IO_Cache cache, long id, Path path,
+            long chunkSize, int bufferSize) throws IOException {
+        if (chunkSize < 1L) {
+            throw new IllegalArgumentException("chunkSize < 1");
+        }
+        this.cache = cache;
+        this.id = id;
+        this.path = path;
+        this.chunkSize = chunkSize;
+        this.bufferSize = bufferSize;
+        open();
+    }
+
+    /**
+     * @return The identifier of the entry.
+     */
+    public long getID() {
+        return id;
+    }
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        try {
+            if (chunkCount == chunkSize) {
+                next();
+            }
+            os.write(b);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+        chunkCount++;
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        try {
+            while (len > 0) {
+                if (chunkCount == chunkSize) {
+                    next();
+                }
+                int n = (int) Math.min(len, chunkSize - chunkCount);
+                os.write(b, off, n);
+                off += n;
+                len -= n;
+                chunkCount += n;
+                count += n;
+            }
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        try {
+            os.flush();
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the current chunk and adds the entry to the cache. If writing
+     * failed, or if closing the current chunk fails, the entry is abandoned as
+     * for {@link #abort()} instead.
+     *
+     * @throws IOException If encountered.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (failed) {
+            discard();
+            return;
+        }
+        try {
+            os.close();
+        } catch (IOException | RuntimeException e) {
+            try {
+                discard();
+            } catch (IOException x) {
+                e.addSuppressed(x);
+            }
+            throw e;
+        }
+        cache.added(id, count);
+    }
+
+    /**
+     * Closes this without adding the entry: the chunks written so far are
+     * deleted and the entry is abandoned, so it is not counted in the
+     * statistics, logged or passed to subscribers. Does nothing if already
+     * closed.
+     *
+     * @throws IOException If encountered deleting the chunks.
+     */
+    public void abort() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        discard();
+    }
+
+    /**
+     * @throws IOException If closed or if writing failed.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (failed) {
+            throw new IOException("Stream failed");
+        }
+    }
+
+    /**
+     * Closes the current chunk ignoring any failure, deletes the chunks
+     * written and abandons the entry.
+     *
+     * @throws IOException If encountered deleting the chunks.
+     */
+    private void discard() throws IOException {
+        try {
+            try {
+                os.close();
+            } catch (IOException e) {
+                // The chunks are deleted anyway.
+            }
+            for (int i = 0; i <= chunk; i++) {
+                Files.deleteIfExists(cache.getChunkPath(path, i));
+            }
+        } finally {
+            cache.abandoned(id);
+        }
+    }
+
+    /**
+     * Closes the current chunk and opens the next.
+     *
+     * @throws IOException If encountered.
+     */
+    private void next() throws IOException {
+        os.close();
+        chunk++;
+        chunkCount = 0L;
+        open();
+    }
+
+    /**
+     * Opens the current chunk.
+     *
+     * @throws IOException If encountered.
+     */
+    private void open() throws IOException {
+        try {
+            os = new BufferedOutputStream(Files.newOutputStream(
+                    cache.getChunkPath(path, chunk)), bufferSize);
+        } catch (NoSuchFileException e) {
+            path = cache.relocate(id, e);
+            os = new BufferedOutputStream(Files.newOutputStream(
+                    cache.getChunkPath(path, chunk)), bufferSize);
+        }
+    }
+}
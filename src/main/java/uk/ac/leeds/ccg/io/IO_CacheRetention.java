@@ -0,0 +1,170 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A retention policy for an {@link IO_Cache} that is used as a rolling store.
+ * The policy bounds the number of bytes, the number of entries and/or the age
+ * of entries. It is enforced by evicting the oldest entries, and as
+ * identifiers are sequential the oldest entries are in the lowest
+ * {@code lo_hi} directories. Each eviction moves a whole directory out of the
+ * cache in one operation (see {@link IO_Cache#evict(long, long)}), so the
+ * cache can go below the bounds by up to the size of one such directory.
+ * Whether the bounds are exceeded and which directories to evict is decided
+ * from the statistics of {@link IO_Cache#getStats()}, so this never walks the
+ * cache.
+ *
+ * Once {@link #start(IO_Cache, long)} is called the policy is enforced
+ * periodically by a daemon thread until {@link #close()} is called.
+ *
+ * Retention is not supported in multi-writer mode (see
+ * {@link IO_Cache#enableMultiWriter(long)}): other processes may be writing to
+ * the oldest directories and the statistics only account for this process.
+ *
+ * @version 1.1
+ */
+public class IO_CacheRetention implements Closeable {
+
+    /**
+     * The maximum number of bytes to retain or {@link Long#MAX_VALUE} for no
+     * maximum.
+     */
+    protected final long maxBytes;
+
+    /**
+     * The maximum number of entries to retain or {@link Long#MAX_VALUE} for no
+     * maximum.
+     */
+    protected final long maxEntries;
+
+    /**
+     * The maximum age of entries to retain or null for no maximum.
+     */
+    protected final Duration maxAge;
+
+    /**
+     * For enforcing the policy periodically.
+     */
+    private ScheduledExecutorService ses;
+
+    /**
+     * Create a new instance.
+     *
+     * @param maxBytes The maximum number of bytes to retain or
+     * {@link Long#MAX_VALUE} for no maximum.
+     * @param maxEntries The maximum number of entries to retain or
+     * {@link Long#MAX_VALUE} for no maximum.
+     * @param maxAge The maximum age of entries to retain or null for no
+     * maximum. The age of a {@code lo_hi} directory of entries is the time
+     * since it was last modified which is when the last entry was added to it.
+     */
+    public IO_CacheRetention(long maxBytes, long maxEntries, Duration maxAge) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Starts enforcing the policy for cache every period milliseconds on a
+     * daemon thread.
+     *
+     * @param cache The cache.
+     * @param period The period in milliseconds.
+     */
+    public synchronized void start(IO_Cache cache, long period) {
+        if (ses != null) {
+            throw new IllegalStateException("Already started.");
+        }
+        ses = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "IO_CacheRetention " + cache.getBaseDir());
+            t.setDaemon(true);
+            return t;
+        });
+        ses.scheduleWithFixedDelay(() -> {
+            try {
+                enforce(cache);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace(System.err);
+            }
+        }, 0L, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Evicts the oldest entries from cache until it is within the bounds of
+     * this policy or until there is nothing more that can be evicted.
+     *
+     * @param cache The cache.
+     * @return The number of entries evicted.
+     * @throws IOException If encountered.
+     */
+    public long enforce(IO_Cache cache) throws IOException {
+        IO_CacheStats s = cache.getStats();
+        long r = 0L;
+        while (true) {
+            long needEntries = Math.max(0L, s.getCount() - maxEntries);
+            long needBytes = Math.max(0L, s.getBytes() - maxBytes);
+            if (needEntries == 0L && needBytes == 0L && !tooOld(cache)) {
+                return r;
+            }
+            long e = cache.evict(needEntries, needBytes);
+            if (e < 0L) {
+                return r;
+            }
+            r += e;
+        }
+    }
+
+    /**
+     * @param cache The cache.
+     * @return true if the directory with the oldest entries in cache is older
+     * than {@link #maxAge}.
+     * @throws IOException If encountered.
+     */
+    protected boolean tooOld(IO_Cache cache) throws IOException {
+        if (maxAge == null) {
+            return false;
+        }
+        long t = cache.getOldestModifiedTime();
+        if (t < 0L) {
+            // Unknown as there is no such directory.
+            return false;
+        }
+        return System.currentTimeMillis() - t > maxAge.toMillis();
+    }
+
+    /**
+     * Stops enforcing the policy.
+     */
+    @Override
+    public synchronized void close() {
+        if (ses != null) {
+            ses.shutdownNow();
+            try {
+                ses.awaitTermination(1L, TimeUnit.MINUTES);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            ses = null;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Statistics for an {@link IO_Cache}: running totals of the number of entries,
+ * the number of bytes they take up and the lowest identifier that has not been
+ * evicted; and the number of entries and bytes in each {@code lo_hi}
+ * directory. These are updated as entries are added and evicted so that they
+ * can be got without walking the cache.
+ *
+ * Directories are identified by a range exponent k and an index. A directory
+ * with range exponent k contains the entries with identifiers from
+ * {@code index * range^k} to {@code (index + 1) * range^k - 1}. So k = 1 is for
+ * the directories at the level above the leaves. Unlike the level of a
+ * directory, k does not change as the cache grows deeper. The aggregates for
+ * each k are stored in arrays indexed by index less an offset, so updating
+ * them for an entry and looking up the aggregates of a directory are
+ * O(levels). The offset for each k is the index of the directory containing
+ * {@link #firstID}, so the arrays only span the directories that have not been
+ * evicted and do not grow with every identifier ever issued.
+ *
+ * The statistics are persisted in a compact binary file in the
+ * {@link IO_Cache#META} directory when the cache is closed or when
+ * {@link IO_Cache#flushStats()} is called. Only the aggregates from the
+ * offset for each k are written.
+ *
+ * @version 1.1
+ */
+public class IO_CacheStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * For checking the format of persisted statistics.
+     */
+    private static final int MAGIC = 0x494f4355;
+
+    /**
+     * The range of the cache.
+     */
+    protected final long range;
+
+    /**
+     * The number of entries.
+     */
+    protected long count;
+
+    /**
+     * The number of bytes of the entries.
+     */
+    protected long bytes;
+
+    /**
+     * The lowest identifier that has not been evicted.
+     */
+    protected long firstID;
+
+    /**
+     * {@code counts.get(k - 1)[index - offsets[k]]} is the number of entries
+     * in the directory with range exponent k and index.
+     */
+    protected final ArrayList<long[]> counts;
+
+    /**
+     * {@code sizes.get(k - 1)[index - offsets[k]]} is the number of bytes in
+     * the directory with range exponent k and index.
+     */
+    protected final ArrayList<long[]> sizes;
+
+    /**
+     * {@code offsets[k]} is the index of the directory with range exponent k
+     * that is stored first.
+     */
+    protected long[] offsets;
+
+    /**
+     * {@code ranges[k]} is {@code range^k}.
+     */
+    protected long[] ranges;
+
+    /**
+     * Create a new instance with all totals 0.
+     *
+     * @param range The range of the cache.
+     */
+    public IO_CacheStats(long range) {
+        this.range = range;
+        counts = new ArrayList<>();
+        sizes = new ArrayList<>();
+        ranges = new long[]{1L, range};
+        offsets = new long[2];
+        counts.add(new long[16]);
+        sizes.add(new long[16]);
+    }
+
+    /**
+     * Accounts for an entry being added.
+     *
+     * @param id The identifier of the entry.
+     * @param n The number of bytes of the entry.
+     */
+    public void add(long id, long n) {
+        add(id, 1L, n);
+    }
+
+    /**
+     * Accounts for c entries and n bytes being added at id.
+     *
+     * @param id The identifier.
+     * @param c The number of entries.
+     * @param n The number of bytes.
+     */
+    public synchronized void add(long id, long c, long n) {
+        while (id >= ranges[ranges.length - 1] * range) {
+            deepen();
+        }
+        for (int k = 1; k < ranges.length; k++) {
+            int i = ensureIndex(k, id / ranges[k]);
+            counts.get(k - 1)[i] += c;
+            sizes.get(k - 1)[i] += n;
+        }
+        count += c;
+        bytes += n;
+    }
+
+    /**
+     * Accounts for all the entries in the directory with range exponent k and
+     * index being evicted. {@link #firstID} is set to the identifier after the
+     * last that the directory could contain, and the aggregates of directories
+     * that only contain identifiers less than this are dropped.
+     *
+     * @param k The range exponent.
+     * @param index The index.
+     * @return The number of entries and the number of bytes evicted.
+     */
+    public synchronized long[] evicted(int k, long index) {
+        long[] r = get(k, index);
+        long lower = index * getRange(k);
+        long upper = lower + getRange(k);
+        for (int j = 1; j < ranges.length; j++) {
+            long[] cs = counts.get(j - 1);
+            long[] ss = sizes.get(j - 1);
+            if (j <= k) {
+                // Zero the directory and all those below it.
+                long o = offsets[j];
+                int from = (int) Math.clamp(lower / ranges[j] - o, 0L,
+                        cs.length);
+                int to = (int) Math.clamp(upper / ranges[j] - o, 0L,
+                        cs.length);
+                Arrays.fill(cs, from, to, 0L);
+                Arrays.fill(ss, from, to, 0L);
+            } else {
+                int i = slot(j, lower / ranges[j]);
+                if (i >= 0) {
+                    cs[i] -= r[0];
+                    ss[i] -= r[1];
+                }
+            }
+        }
+        count -= r[0];
+        bytes -= r[1];
+        firstID = Math.max(firstID, upper);
+        for (int j = 1; j < ranges.length; j++) {
+            // Drop the aggregates of directories below firstID.
+            long o = firstID / ranges[j];
+            if (o > offsets[j]) {
+                long[] cs = counts.get(j - 1);
+                int d = (int) Math.min(cs.length, o - offsets[j]);
+                counts.set(j - 1, Arrays.copyOfRange(cs, d, cs.length));
+                sizes.set(j - 1, Arrays.copyOfRange(sizes.get(j - 1), d,
+                        cs.length));
+                offsets[j] = o;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Accounts for the number of bytes of the entry identified by id changing
+     * by delta.
+     *
+     * @param id The identifier.
+     * @param delta The change in the number of bytes.
+     */
+    public void resized(long id, long delta) {
+        add(id, 0L, delta);
+    }
+
+    /**
+     * @param k The range exponent.
+     * @param index The index.
+     * @return The number of entries and the number of bytes in the directory
+     * with range exponent k and index.
+     */
+    public synchronized long[] get(int k, long index) {
+        if (k >= ranges.length) {
+            return index == 0 ? new long[]{count, bytes} : new long[2];
+        }
+        int i = slot(k, index);
+        if (i < 0) {
+            return new long[2];
+        }
+        return new long[]{counts.get(k - 1)[i], sizes.get(k - 1)[i]};
+    }
+
+    /**
+     * Calculates the number of entries and bytes for all identifiers less than
+     * x rounded down to a multiple of {@link #range}. This sums the aggregates
+     * of at most {@code range - 1} sibling directories at each level, so it
+     * costs O(levels) array lookups.
+     *
+     * @param x The identifier.
+     * @return The number of entries and number of bytes.
+     */
+    public synchronized long[] getBefore(long x) {
+        long[] r = new long[2];
+        int top = ranges.length - 1;
+        if (x >= ranges[top] * range) {
+            r[0] = count;
+            r[1] = bytes;
+            return r;
+        }
+        for (int k = top; k >= 1; k--) {
+            long[] cs = counts.get(k - 1);
+            long[] ss = sizes.get(k - 1);
+            long o = offsets[k];
+            long from = Math.max(o, (x / (ranges[k] * range)) * range);
+            long to = Math.min(o + cs.length, x / ranges[k]);
+            for (long i = from; i < to; i++) {
+                r[0] += cs[(int) (i - o)];
+                r[1] += ss[(int) (i - o)];
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @param lower The lower identifier (inclusive) which should be a multiple
+     * of {@link #range}.
+     * @param upper The upper identifier (exclusive) which should be a multiple
+     * of {@link #range}.
+     * @return The number of entries and number of bytes with identifiers from
+     * lower to upper. Both lower and upper are rounded down to a multiple of
+     * {@link #range}. See {@link IO_Cache#getSize(long, long)} for a version
+     * that deals with identifiers that are not multiples of {@link #range}.
+     */
+    public synchronized long[] get(long lower, long upper) {
+        long[] u = getBefore(upper);
+        long[] l = getBefore(lower);
+        return new long[]{u[0] - l[0], u[1] - l[1]};
+    }
+
+    /**
+     * @param k The range exponent.
+     * @return {@code range^k}.
+     */
+    public synchronized long getRange(int k) {
+        long r = 1L;
+        for (int i = 0; i < k; i++) {
+            r = Math.multiplyExact(r, range);
+        }
+        return r;
+    }
+
+    /**
+     * @return The largest range exponent for which aggregates are stored.
+     */
+    public synchronized int getMaxK() {
+        return ranges.length - 1;
+    }
+
+    /**
+     * @param k The range exponent.
+     * @return One more than the highest index of the directories with range
+     * exponent k for which non-zero aggregates are stored.
+     */
+    public synchronized long getDirCount(int k) {
+        if (k >= ranges.length) {
+            return 1L;
+        }
+        return offsets[k] + getLiveCount(k);
+    }
+
+    /**
+     * @param k The range exponent which is less than {@code ranges.length}.
+     * @return The number of aggregates stored for range exponent k up to and
+     * including the last that is non-zero.
+     */
+    private int getLiveCount(int k) {
+        long[] cs = counts.get(k - 1);
+        long[] ss = sizes.get(k - 1);
+        int n = cs.length;
+        while (n > 0 && cs[n - 1] == 0L && ss[n - 1] == 0L) {
+            n--;
+        }
+        return n;
+    }
+
+    /**
+     * @return {@link #count}.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return {@link #bytes}.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return {@link #firstID}.
+     */
+    public synchronized long getFirstID() {
+        return firstID;
+    }
+
+    /**
+     * @param firstID What {@link #firstID} is set to.
+     */
+    public synchronized void setFirstID(long firstID) {
+        this.firstID = firstID;
+    }
+
+    /**
+     * Adds storage for another range exponent.
+     */
+    private void deepen() {
+        long r = Math.multiplyExact(ranges[ranges.length - 1], range);
+        ranges = Arrays.copyOf(ranges, ranges.length + 1);
+        ranges[ranges.length - 1] = r;
+        offsets = Arrays.copyOf(offsets, ranges.length);
+        long[] cs = new long[(int) range];
+        long[] ss = new long[(int) range];
+        // The existing top directory becomes index 0 of the new level.
+        cs[0] = count;
+        ss[0] = bytes;
+        counts.add(cs);
+        sizes.add(ss);
+    }
+
+    /**
+     * @param k The range exponent which is less than {@code ranges.length}.
+     * @param index The index.
+     * @return The position in the arrays for k of the aggregates of the
+     * directory with index or -1 if they are not stored.
+     */
+    private int slot(int k, long index) {
+        long i = index - offsets[k];
+        return i < 0L || i >= counts.get(k - 1).length ? -1 : (int) i;
+    }
+
+    /**
+     * Ensures there is storage for index at range exponent k. If index is
+     * less than the offset (as when an evicted entry is resized), the offset
+     * is lowered.
+     *
+     * @param k The range exponent.
+     * @param index The index.
+     * @return The position in the arrays for k of the aggregates of the
+     * directory with index.
+     */
+    private int ensureIndex(int k, long index) {
+        long[] cs = counts.get(k - 1);
+        if (index < offsets[k]) {
+            int d = Math.toIntExact(offsets[k] - index);
+            long[] ncs = new long[cs.length + d];
+            long[] nss = new long[ncs.length];
+            System.arraycopy(cs, 0, ncs, d, cs.length);
+            System.arraycopy(sizes.get(k - 1), 0, nss, d, cs.length);
+            counts.set(k - 1, ncs);
+            sizes.set(k - 1, nss);
+            offsets[k] = index;
+            cs = ncs;
+        }
+        int i = Math.toIntExact(index - offsets[k]);
+        if (i >= cs.length) {
+            int n = Math.max(i + 1, cs.length << 1);
+            counts.set(k - 1, Arrays.copyOf(cs, n));
+            sizes.set(k - 1, Arrays.copyOf(sizes.get(k - 1), n));
+        }
+        return i;
+    }
+
+    /**
+     * Writes the statistics to a file at f. The file is written alongside and
+     * then moved into place so it is replaced in one go.
+     *
+     * @param f The file to write.
+     * @throws IOException If encountered.
+     */
+    public synchronized void write(Path f) throws IOException {
+        Path t = f.resolveSibling(f.getFileName() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(t)))) {
+            dos.writeInt(MAGIC);
+            dos.writeLong(range);
+            dos.writeLong(count);
+            dos.writeLong(bytes);
+            dos.writeLong(firstID);
+            dos.writeInt(ranges.length - 1);
+            for (int k = 1; k < ranges.length; k++) {
+                int n = getLiveCount(k);
+                long[] cs = counts.get(k - 1);
+                long[] ss = sizes.get(k - 1);
+                dos.writeLong(offsets[k]);
+                dos.writeInt(n);
+                for (int i = 0; i < n; i++) {
+                    dos.writeLong(cs[i]);
+                    dos.writeLong(ss[i]);
+                }
+            }
+        }
+        Files.move(t, f, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param f The file to read.
+     * @return The statistics read from the file at f.
+     * @throws IOException If encountered.
+     */
+    public static IO_CacheStats read(Path f) throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                IO_Utilities.getBufferedInputStream(f))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Unrecognised format " + f);
+            }
+            IO_CacheStats r = new IO_CacheStats(dis.readLong());
+            r.count = dis.readLong();
+            r.bytes = dis.readLong();
+            r.firstID = dis.readLong();
+            int ks = dis.readInt();
+            r.counts.clear();
+            r.sizes.clear();
+            r.ranges = new long[ks + 1];
+            r.ranges[0] = 1L;
+            r.offsets = new long[ks + 1];
+            for (int k = 1; k <= ks; k++) {
+                r.ranges[k] = Math.multiplyExact(r.ranges[k - 1], r.range);
+                r.offsets[k] = dis.readLong();
+                int n = dis.readInt();
+                long[] cs = new long[Math.max(n, 16)];
+                long[] ss = new long[cs.length];
+                for (int i = 0; i < n; i++) {
+                    cs[i] = dis.readLong();
+                    ss[i] = dis.readLong();
+                }
+                r.counts.add(cs);
+                r.sizes.add(ss);
+            }
+            return r;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getClass().getSimpleName() + "(range=" + range + ", count="
+                + count + ", bytes=" + bytes + ", firstID=" + firstID
+                + ", maxK=" + (ranges.length - 1) + ")";
+    }
+}
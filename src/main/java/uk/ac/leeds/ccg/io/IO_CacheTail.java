@@ -0,0 +1,351 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * A subscription to the identifiers of entries added to an {@link IO_Cache}.
+ * There are two kinds:
+ * <ul>
+ * <li>In-process subscriptions are created with
+ * {@link IO_Cache#subscribe(long, LongConsumer)}. The consumer is called
+ * directly by the thread that adds each entry, and is passed each identifier
+ * at most once.</li>
+ * <li>Cross-process subscriptions are created with
+ * {@link IO_Cache#subscribe(Path, long, LongConsumer)}. A daemon thread tails
+ * the change log of the cache (see {@link IO_Cache#enableChangeLog()}) and
+ * calls the consumer for each identifier appended to it. The thread waits on a
+ * {@link WatchService} for changes, so where the platform has native file
+ * change notification new identifiers are delivered within milliseconds. In
+ * case notifications are slow or missed, the log is also checked every
+ * {@link #pollMillis} milliseconds.</li>
+ * </ul>
+ * Closing a subscription stops any further calls to the consumer. If the
+ * consumer throws a RuntimeException, or reading the change log fails, the
+ * subscription closes itself and the cause is available from
+ * {@link #getFailure()}.
+ *
+ * @version 1.0
+ */
+public class IO_CacheTail implements Closeable {
+
+    /**
+     * The default for {@link #pollMillis}.
+     */
+    public static final long DEFAULT_POLL_MILLIS = 100L;
+
+    /**
+     * The cache for an in-process subscription, otherwise null.
+     */
+    protected final IO_Cache cache;
+
+    /**
+     * The change log for a cross-process subscription, otherwise null.
+     */
+    protected final Path log;
+
+    /**
+     * Identifiers less than this are not delivered.
+     */
+    protected final long fromID;
+
+    /**
+     * The consumer of identifiers.
+     */
+    protected final LongConsumer consumer;
+
+    /**
+     * The maximum time in milliseconds to wait for a change notification
+     * before checking the change log anyway.
+     */
+    protected final long pollMillis;
+
+    /**
+     * The thread tailing {@link #log}, otherwise null.
+     */
+    private Thread thread;
+
+    /**
+     * The greatest identifier considered by the replay of an in-process
+     * subscription.
+     */
+    private long replayedTo;
+
+    /**
+     * The identifiers skipped by the replay of an in-process subscription
+     * because their entries were being written.
+     */
+    private Set<Long> skipped;
+
+    /**
+     * Set when closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Why delivery stopped if it was not closed with {@link #close()},
+     * otherwise null.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Create a new in-process subscription. This does not register itself with
+     * the cache.
+     *
+     * @param cache The cache.
+     * @param fromID Identifiers less than this are not delivered.
+     * @param consumer The consumer of identifiers.
+     */
+    protected IO_CacheTail(IO_Cache cache, long fromID,
+            LongConsumer consumer) {
+        this.cache = cache;
+        this.log = null;
+        this.fromID = fromID;
+        this.consumer = consumer;
+        this.pollMillis = 0L;
+    }
+
+    /**
+     * Create a new cross-process subscription. The thread tailing the change
+     * log is started by {@link #open(Path, long, LongConsumer, long)}.
+     *
+     * @param baseDir The base directory of the cache.
+     * @param fromID Identifiers less than this are not delivered.
+     * @param consumer The consumer of identifiers.
+     * @param pollMillis The maximum time in milliseconds to wait for a change
+     * notification before checking the change log anyway.
+     */
+    protected IO_CacheTail(Path baseDir, long fromID, LongConsumer consumer,
+            long pollMillis) {
+        this.cache = null;
+        this.log = Paths.get(baseDir.toString(), IO_Cache.META,
+                IO_Cache.CHANGES);
+        this.fromID = fromID;
+        this.consumer = consumer;
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Create a new cross-process subscription and start the thread tailing the
+     * change log. If there is no change log yet, the thread waits for one to be
+     * created.
+     *
+     * @param baseDir The base directory of the cache.
+     * @param fromID Identifiers less than this are not delivered.
+     * @param consumer The consumer of identifiers.
+     * @param pollMillis The maximum time in milliseconds to wait for a change
+     * notification before checking the change log anyway.
+     * @return The subscription which must be closed to stop the thread.
+     */
+    public static IO_CacheTail open(Path baseDir, long fromID,
+            LongConsumer consumer, long pollMillis) {
+        IO_CacheTail t = new IO_CacheTail(baseDir, fromID, consumer,
+                pollMillis);
+        Thread th = new Thread(t::tail, "IO_CacheTail " + baseDir);
+        th.setDaemon(true);
+        t.thread = th;
+        th.start();
+        return t;
+    }
+
+    /**
+     * Delivers id to {@link #consumer} unless this is closed or id is less
+     * than {@link #fromID}. If the consumer throws a RuntimeException this is
+     * closed by {@link #fail(Throwable)}, so the exception is not passed on to
+     * the thread that added the entry.
+     *
+     * @param id The identifier to deliver.
+     */
+    protected void accept(long id) {
+        if (!closed && id >= fromID) {
+            try {
+                consumer.accept(id);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Records why delivery stopped and closes this without waiting for the
+     * tailing thread (which may be the caller).
+     *
+     * @param e The cause.
+     */
+    protected void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        closed = true;
+        if (cache != null) {
+            cache.unsubscribe(this);
+        }
+    }
+
+    /**
+     * @return Why delivery stopped if this closed itself because the consumer
+     * threw an exception or the change log could not be read, otherwise null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Records the end of the replay of an in-process subscription, so that
+     * {@link #added(long)} does not deliver an identifier twice.
+     *
+     * @param to The greatest identifier considered by the replay.
+     * @param skipped The identifiers skipped by the replay because their
+     * entries were being written.
+     */
+    protected synchronized void replayed(long to, Set<Long> skipped) {
+        this.replayedTo = to;
+        this.skipped = skipped;
+    }
+
+    /**
+     * Delivers the identifier of an entry that has just been added, unless it
+     * was already delivered by the replay.
+     *
+     * @param id The identifier of the entry added.
+     */
+    protected void added(long id) {
+        synchronized (this) {
+            if (id <= replayedTo && !skipped.remove(id)) {
+                return;
+            }
+        }
+        accept(id);
+    }
+
+    /**
+     * @return true if this has been closed, including if it closed itself
+     * (see {@link #getFailure()}).
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops any further calls to the consumer. For a cross-process
+     * subscription this waits for the tailing thread to finish.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (cache != null) {
+            cache.unsubscribe(this);
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Tails {@link #log} until closed.
+     */
+    private void tail() {
+        Path dir = log.getParent();
+        ByteBuffer b = ByteBuffer.allocateDirect(8 * 1024);
+        long position = 0L;
+        WatchService ws = null;
+        try {
+            while (!closed) {
+                if (ws == null && Files.isDirectory(dir)) {
+                    try {
+                        ws = dir.getFileSystem().newWatchService();
+                        dir.register(ws, ENTRY_CREATE, ENTRY_MODIFY);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // Rely on polling.
+                    }
+                }
+                if (Files.exists(log)) {
+                    position = read(b, position);
+                }
+                if (ws == null) {
+                    Thread.sleep(pollMillis);
+                } else {
+                    WatchKey k = ws.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    if (k != null) {
+                        k.pollEvents();
+                        k.reset();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            // Closed.
+        } catch (IOException | RuntimeException | Error e) {
+            fail(e);
+        } finally {
+            if (ws != null) {
+                try {
+                    ws.close();
+                } catch (IOException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads and delivers all complete identifiers in {@link #log} from
+     * position.
+     *
+     * @param b A buffer to use for reading.
+     * @param position The position in the log to read from.
+     * @return The position in the log after the last complete identifier read.
+     * @throws IOException If encountered.
+     */
+    private long read(ByteBuffer b, long position) throws IOException {
+        try (FileChannel fc = FileChannel.open(log, READ)) {
+            while (!closed && fc.size() - position >= Long.BYTES) {
+                b.clear();
+                int n = fc.read(b, position);
+                if (n < Long.BYTES) {
+                    break;
+                }
+                b.flip();
+                while (b.remaining() >= Long.BYTES) {
+                    accept(b.getLong());
+                    position += Long.BYTES;
+                }
+            }
+        }
+        return position;
+    }
+}
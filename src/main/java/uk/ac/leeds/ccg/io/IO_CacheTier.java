@@ -0,0 +1,522 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.Closeable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An off-heap memory tier for an {@link IO_Cache} holding the serialized bytes
+ * of recently read and written entries (see
+ * {@link IO_Cache#setTier(IO_CacheTier)}). A hit costs a copy from off-heap
+ * memory and deserialization with no file system access. As the bytes are
+ * held outside the Java heap the tier can be very large without adding to
+ * garbage collection times.
+ *
+ * Memory is allocated from a shared {@link Arena} in slabs of
+ * {@link #slabBytes} bytes. Each slab belongs to a size class and is divided
+ * into blocks of that size. Size classes are powers of two from
+ * {@link #minBlock} to {@link #maxBlock} bytes and an entry is held in a block
+ * of the smallest class it fits. Entries larger than {@link #maxBlock} are not
+ * held. Slabs are allocated to size classes as they are needed until
+ * {@link #capacity} bytes have been allocated. After that, a block for a new
+ * entry is found by evicting an entry of the same size class chosen with the
+ * clock algorithm: each block has a reference bit that is set when it is
+ * written or read, and a hand sweeps the blocks clearing set bits and evicting
+ * the first entry with a clear bit. A size class that has no slab once the
+ * capacity is used up cannot hold entries.
+ *
+ * Bytes read from a file on a miss are put with
+ * {@link #put(long, ByteBuffer, long)}, which does not hold them if any entry
+ * was removed since the read started. So bytes read from a file that was then
+ * replaced are not held after the replacement has removed the entry.
+ *
+ * @version 1.0
+ */
+public class IO_CacheTier implements Closeable {
+
+    /**
+     * The default for {@link #minBlock}.
+     */
+    public static final int DEFAULT_MIN_BLOCK = 64;
+
+    /**
+     * The default for {@link #maxBlock}.
+     */
+    public static final int DEFAULT_MAX_BLOCK = 1 << 20;
+
+    /**
+     * The default for {@link #slabBytes}.
+     */
+    public static final int DEFAULT_SLAB_BYTES = 4 << 20;
+
+    /**
+     * For marking empty blocks.
+     */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    /**
+     * The maximum number of bytes to allocate.
+     */
+    protected final long capacity;
+
+    /**
+     * The size of the smallest blocks.
+     */
+    protected final int minBlock;
+
+    /**
+     * The size of the largest blocks.
+     */
+    protected final int maxBlock;
+
+    /**
+     * The size of each slab.
+     */
+    protected final int slabBytes;
+
+    /**
+     * The arena from which slabs are allocated.
+     */
+    protected final Arena arena;
+
+    /**
+     * The size classes.
+     */
+    protected final SizeClass[] classes;
+
+    /**
+     * The location of each entry held. The size class is in the high 32 bits
+     * and the block in the low 32 bits. This is sorted so that the entries in
+     * a range of identifiers can be found without a scan.
+     */
+    protected final ConcurrentSkipListMap<Long, Long> index;
+
+    /**
+     * The number of times entries have been removed (see
+     * {@link #put(long, ByteBuffer, long)}).
+     */
+    protected final AtomicLong epoch;
+
+    /**
+     * Held for reading to check {@link #epoch} and put, and for writing to
+     * remove.
+     */
+    protected final ReentrantReadWriteLock lock;
+
+    /**
+     * The number of bytes allocated.
+     */
+    protected final AtomicLong allocated;
+
+    /**
+     * The number of hits.
+     */
+    protected final LongAdder hits;
+
+    /**
+     * The number of misses.
+     */
+    protected final LongAdder misses;
+
+    /**
+     * Create a new instance with {@link #DEFAULT_MIN_BLOCK},
+     * {@link #DEFAULT_MAX_BLOCK} and {@link #DEFAULT_SLAB_BYTES}.
+     *
+     * @param capacity The maximum number of bytes to allocate.
+     */
+    public IO_CacheTier(long capacity) {
+        this(capacity, DEFAULT_MIN_BLOCK, DEFAULT_MAX_BLOCK,
+                DEFAULT_SLAB_BYTES);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param capacity The maximum number of bytes to allocate.
+     * @param minBlock The size of the smallest blocks which must be a power of
+     * two.
+     * @param maxBlock The size of the largest blocks which must be a power of
+     * two no smaller than minBlock.
+     * @param slabBytes The size of each slab which must be at least maxBlock.
+     */
+    public IO_CacheTier(long capacity, int minBlock, int maxBlock,
+            int slabBytes) {
+        if (Integer.bitCount(minBlock) != 1 || Integer.bitCount(maxBlock) != 1
+                || maxBlock < minBlock || slabBytes < maxBlock) {
+            throw new IllegalArgumentException("Invalid block or slab size.");
+        }
+        this.capacity = capacity;
+        this.minBlock = minBlock;
+        this.maxBlock = maxBlock;
+        this.slabBytes = slabBytes;
+        arena = Arena.ofShared();
+        int n = Integer.numberOfTrailingZeros(maxBlock)
+                - Integer.numberOfTrailingZeros(minBlock) + 1;
+        classes = new SizeClass[n];
+        for (int i = 0; i < n; i++) {
+            classes[i] = new SizeClass(i, minBlock << i);
+        }
+        index = new ConcurrentSkipListMap<>();
+        epoch = new AtomicLong();
+        lock = new ReentrantReadWriteLock();
+        allocated = new AtomicLong();
+        hits = new LongAdder();
+        misses = new LongAdder();
+    }
+
+    /**
+     * Holds a copy of the remaining bytes of b for the entry identified by id,
+     * replacing any bytes already held for it.
+     *
+     * @param id The identifier of the entry.
+     * @param b The bytes. The position of b is not changed.
+     * @return true if the bytes are held, false if there was no room for them.
+     */
+    public boolean put(long id, ByteBuffer b) {
+        free(id);
+        int n = b.remaining();
+        if (n > maxBlock) {
+            return false;
+        }
+        SizeClass c = classes[getClass(n)];
+        return c.put(id, b);
+    }
+
+    /**
+     * Holds a copy of the remaining bytes of b for the entry identified by id
+     * as for {@link #put(long, ByteBuffer)}, unless any entry has been removed
+     * since {@link #getEpoch()} returned e.
+     *
+     * @param id The identifier of the entry.
+     * @param b The bytes. The position of b is not changed.
+     * @param e The value returned by {@link #getEpoch()} before the bytes were
+     * read.
+     * @return true if the bytes are held.
+     */
+    public boolean put(long id, ByteBuffer b, long e) {
+        lock.readLock().lock();
+        try {
+            if (epoch.get() != e) {
+                return false;
+            }
+            return put(id, b);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of times entries have been removed.
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * @param id The identifier of an entry.
+     * @return A copy of the bytes held for the entry identified by id or null
+     * if they are not held.
+     */
+    public byte[] get(long id) {
+        Long l = index.get(id);
+        if (l != null) {
+            byte[] r = classes[(int) (l >>> 32)].get(id, l.intValue());
+            if (r != null) {
+                hits.increment();
+                return r;
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stops holding the bytes for the entry identified by id.
+     *
+     * @param id The identifier of the entry.
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            epoch.incrementAndGet();
+            free(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops holding the bytes for entries with identifiers from lower to upper.
+     *
+     * @param lower The lower identifier (inclusive).
+     * @param upper The upper identifier (exclusive).
+     */
+    public void remove(long lower, long upper) {
+        lock.writeLock().lock();
+        try {
+            epoch.incrementAndGet();
+            for (Long id : index.subMap(lower, upper).keySet()) {
+                free(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops holding the bytes for the entry identified by id without counting
+     * it as a removal.
+     *
+     * @param id The identifier of the entry.
+     */
+    private void free(long id) {
+        Long l = index.remove(id);
+        if (l != null) {
+            classes[(int) (l >>> 32)].free(id, l.intValue());
+        }
+    }
+
+    /**
+     * @return The number of entries held.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * @return The number of bytes allocated.
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * @return The number of times {@link #get(long)} found the bytes.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of times {@link #get(long)} did not find the bytes.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param n The number of bytes.
+     * @return The index of the smallest size class with blocks of at least n
+     * bytes.
+     */
+    protected int getClass(int n) {
+        if (n <= minBlock) {
+            return 0;
+        }
+        return (32 - Integer.numberOfLeadingZeros(n - 1))
+                - Integer.numberOfTrailingZeros(minBlock);
+    }
+
+    /**
+     * Frees all the memory. The tier must not be used after this.
+     */
+    @Override
+    public void close() {
+        index.clear();
+        arena.close();
+    }
+
+    /**
+     * The slabs and blocks of a size class.
+     */
+    protected class SizeClass {
+
+        /**
+         * The index of this size class.
+         */
+        final int c;
+
+        /**
+         * The size of each block.
+         */
+        final int blockSize;
+
+        /**
+         * The number of blocks in each slab.
+         */
+        final int perSlab;
+
+        /**
+         * The slabs.
+         */
+        final List<MemorySegment> slabs = new ArrayList<>();
+
+        /**
+         * The identifier of the entry in each block or {@link #EMPTY}.
+         */
+        long[] ids = new long[0];
+
+        /**
+         * The number of bytes of the entry in each block.
+         */
+        int[] lengths = new int[0];
+
+        /**
+         * The reference bit for each block.
+         */
+        boolean[] refs = new boolean[0];
+
+        /**
+         * Blocks that are empty.
+         */
+        int[] free = new int[0];
+
+        /**
+         * The number of blocks in {@link #free}.
+         */
+        int freeCount;
+
+        /**
+         * The next block the clock hand looks at.
+         */
+        int hand;
+
+        /**
+         * @param c The index of this size class.
+         * @param blockSize The size of each block.
+         */
+        SizeClass(int c, int blockSize) {
+            this.c = c;
+            this.blockSize = blockSize;
+            this.perSlab = slabBytes / blockSize;
+        }
+
+        /**
+         * @param id The identifier of the entry.
+         * @param b The bytes.
+         * @return true if held.
+         */
+        synchronized boolean put(long id, ByteBuffer b) {
+            int block = allocate();
+            if (block < 0) {
+                return false;
+            }
+            MemorySegment.copy(MemorySegment.ofBuffer(b), 0L,
+                    slabs.get(block / perSlab),
+                    (long) (block % perSlab) * blockSize, b.remaining());
+            ids[block] = id;
+            lengths[block] = b.remaining();
+            refs[block] = true;
+            index.put(id, ((long) c << 32) | block);
+            return true;
+        }
+
+        /**
+         * @param id The identifier of the entry.
+         * @param block The block.
+         * @return A copy of the bytes or null if the block no longer holds the
+         * entry.
+         */
+        synchronized byte[] get(long id, int block) {
+            if (block >= ids.length || ids[block] != id) {
+                return null;
+            }
+            refs[block] = true;
+            byte[] r = new byte[lengths[block]];
+            MemorySegment.copy(slabs.get(block / perSlab), ValueLayout.JAVA_BYTE,
+                    (long) (block % perSlab) * blockSize, r, 0, r.length);
+            return r;
+        }
+
+        /**
+         * @param id The identifier of the entry.
+         * @param block The block to free if it holds the entry.
+         */
+        synchronized void free(long id, int block) {
+            if (block < ids.length && ids[block] == id) {
+                ids[block] = EMPTY;
+                free[freeCount++] = block;
+            }
+        }
+
+        /**
+         * @return An empty block or -1 if none can be found.
+         */
+        private int allocate() {
+            if (freeCount > 0) {
+                return free[--freeCount];
+            }
+            if (reserve()) {
+                int n = ids.length;
+                slabs.add(arena.allocate(slabBytes, blockSize));
+                ids = Arrays.copyOf(ids, n + perSlab);
+                Arrays.fill(ids, n, n + perSlab, EMPTY);
+                lengths = Arrays.copyOf(lengths, n + perSlab);
+                refs = Arrays.copyOf(refs, n + perSlab);
+                free = Arrays.copyOf(free, n + perSlab);
+                for (int i = n + perSlab - 1; i > n; i--) {
+                    free[freeCount++] = i;
+                }
+                return n;
+            }
+            int n = ids.length;
+            if (n == 0) {
+                return -1;
+            }
+            for (int i = 0; i <= 2 * n; i++) {
+                int block = hand;
+                hand = (hand + 1) % n;
+                if (ids[block] == EMPTY) {
+                    return block;
+                }
+                if (refs[block]) {
+                    refs[block] = false;
+                } else {
+                    index.remove(ids[block], ((long) c << 32) | block);
+                    ids[block] = EMPTY;
+                    return block;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return true if another slab can be allocated within the capacity.
+         */
+        private boolean reserve() {
+            while (true) {
+                long a = allocated.get();
+                if (a + slabBytes > capacity) {
+                    return false;
+                }
+                if (allocated.compareAndSet(a, a + slabBytes)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
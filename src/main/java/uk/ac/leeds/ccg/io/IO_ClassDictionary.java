@@ -0,0 +1,355 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A dictionary of class descriptors shared by the entries of an
+ * {@link IO_Cache}. Java serialization writes the full descriptor of each
+ * class (its name, serialVersionUID and the names and types of its fields)
+ * into every stream, which for small Objects can take up more space than the
+ * data. Streams written with {@link Output} instead write an int identifier
+ * for each descriptor, and the descriptors themselves are written once to a
+ * dictionary file. Streams are read back with {@link Input}. They start with
+ * a different header ({@link #MAGIC}) to standard serialization streams so the
+ * two can be told apart.
+ *
+ * The dictionary file is a sequence of records, each an int length followed by
+ * that many bytes of a standard serialization stream containing a descriptor.
+ * The identifier of a descriptor is the index of its record. Records are only
+ * appended while holding an exclusive {@link FileLock} on the file, so several
+ * processes can share a dictionary. Descriptors are keyed by their serialized
+ * form, so different versions of a class with the same serialVersionUID get
+ * different identifiers. Records are only resolved to descriptors when first
+ * needed, so a dictionary can be opened even if it refers to classes that are
+ * not available.
+ *
+ * @version 1.0
+ */
+public class IO_ClassDictionary implements Closeable {
+
+    /**
+     * The first two bytes of a stream written by {@link Output}. Standard
+     * serialization streams start with
+     * {@link java.io.ObjectStreamConstants#STREAM_MAGIC}.
+     */
+    public static final short MAGIC = 0x494f;
+
+    /**
+     * The version of the streams written by {@link Output}.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The channel for the dictionary file.
+     */
+    protected final FileChannel fc;
+
+    /**
+     * The serialized descriptors by identifier.
+     */
+    protected final List<byte[]> records;
+
+    /**
+     * The descriptors by identifier, null for those not resolved yet.
+     */
+    protected final List<ObjectStreamClass> descs;
+
+    /**
+     * The identifiers by serialized descriptor.
+     */
+    protected final Map<ByteBuffer, Integer> ids;
+
+    /**
+     * The identifiers of descriptors that have been looked up before.
+     */
+    protected final Map<ObjectStreamClass, Integer> known;
+
+    /**
+     * The number of bytes of the dictionary file that have been read.
+     */
+    protected long position;
+
+    /**
+     * For serializing Objects in each thread using this dictionary.
+     */
+    private final ThreadLocal<IO_Serializer> serializers;
+
+    /**
+     * Create a new instance opening (and if necessary creating) the dictionary
+     * file at f and reading the descriptors in it.
+     *
+     * @param f The path of the dictionary file.
+     * @throws IOException If encountered.
+     */
+    public IO_ClassDictionary(Path f) throws IOException {
+        fc = FileChannel.open(f, CREATE, READ, WRITE);
+        records = new ArrayList<>();
+        descs = new ArrayList<>();
+        ids = new HashMap<>();
+        known = new IdentityHashMap<>();
+        serializers = new ThreadLocal<>();
+        read();
+    }
+
+    /**
+     * @return An {@link IO_Serializer} for the calling thread which writes
+     * streams using this dictionary.
+     */
+    public IO_Serializer getSerializer() {
+        IO_Serializer r = serializers.get();
+        if (r == null) {
+            r = new IO_Serializer(this);
+            serializers.set(r);
+        }
+        return r;
+    }
+
+    /**
+     * @param desc The descriptor.
+     * @return The identifier of desc, adding it to the dictionary if it is not
+     * already in it.
+     * @throws IOException If encountered.
+     */
+    public synchronized int getID(ObjectStreamClass desc) throws IOException {
+        Integer r = known.get(desc);
+        if (r != null) {
+            return r;
+        }
+        ByteBuffer k = ByteBuffer.wrap(toBytes(desc));
+        r = ids.get(k);
+        if (r == null) {
+            FileLock l = fc.lock();
+            try {
+                // Another process may have added it.
+                read();
+                r = ids.get(k);
+                if (r == null) {
+                    ByteBuffer b = ByteBuffer.allocate(Integer.BYTES
+                            + k.remaining());
+                    b.putInt(k.remaining()).put(k.duplicate()).flip();
+                    long p = fc.size();
+                    while (b.hasRemaining()) {
+                        p += fc.write(b, p);
+                    }
+                    fc.force(false);
+                    read();
+                    r = ids.get(k);
+                }
+            } finally {
+                l.release();
+            }
+        }
+        known.put(desc, r);
+        return r;
+    }
+
+    /**
+     * @param id The identifier.
+     * @return The descriptor identified by id, which is resolved the first
+     * time it is got.
+     * @throws IOException If there is no such descriptor.
+     * @throws ClassNotFoundException If the class of the descriptor is not
+     * found.
+     */
+    public synchronized ObjectStreamClass get(int id) throws IOException,
+            ClassNotFoundException {
+        if (id >= records.size()) {
+            // Another process may have added it.
+            read();
+        }
+        if (id < 0 || id >= records.size()) {
+            throw new InvalidClassException("No class descriptor " + id);
+        }
+        ObjectStreamClass r = descs.get(id);
+        if (r == null) {
+            r = fromBytes(records.get(id));
+            descs.set(id, r);
+        }
+        return r;
+    }
+
+    /**
+     * Reads any records in the dictionary file from {@link #position}.
+     *
+     * @throws IOException If encountered.
+     */
+    protected final synchronized void read() throws IOException {
+        long size = fc.size();
+        if (size <= position) {
+            return;
+        }
+        ByteBuffer b = ByteBuffer.allocate((int) (size - position));
+        while (b.hasRemaining()) {
+            if (fc.read(b, position + b.position()) < 0) {
+                break;
+            }
+        }
+        b.flip();
+        while (b.remaining() >= Integer.BYTES) {
+            int n = b.getInt(b.position());
+            if (b.remaining() < Integer.BYTES + n) {
+                // Partly written.
+                break;
+            }
+            b.getInt();
+            byte[] a = new byte[n];
+            b.get(a);
+            ids.put(ByteBuffer.wrap(a), records.size());
+            records.add(a);
+            descs.add(null);
+            position += Integer.BYTES + n;
+        }
+    }
+
+    /**
+     * @param desc The descriptor.
+     * @return desc serialized in a standard serialization stream.
+     * @throws IOException If encountered.
+     */
+    protected static byte[] toBytes(ObjectStreamClass desc)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(desc);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @param a A descriptor serialized in a standard serialization stream.
+     * @return The descriptor.
+     * @throws IOException If encountered.
+     * @throws ClassNotFoundException If the class of the descriptor is not
+     * found.
+     */
+    protected static ObjectStreamClass fromBytes(byte[] a)
+            throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(a))) {
+            return (ObjectStreamClass) ois.readObject();
+        } catch (ClassCastException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        fc.close();
+    }
+
+    /**
+     * An {@link ObjectOutputStream} which writes the identifiers of class
+     * descriptors in a dictionary rather than the descriptors.
+     */
+    public static class Output extends ObjectOutputStream {
+
+        /**
+         * The dictionary.
+         */
+        protected final IO_ClassDictionary dictionary;
+
+        /**
+         * Create a new instance.
+         *
+         * @param out The stream to write to.
+         * @param dictionary The dictionary.
+         * @throws IOException If encountered.
+         */
+        public Output(OutputStream out, IO_ClassDictionary dictionary)
+                throws IOException {
+            super(out);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected void writeStreamHeader() throws IOException {
+            writeShort(MAGIC);
+            writeShort(VERSION);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc)
+                throws IOException {
+            writeInt(dictionary.getID(desc));
+        }
+    }
+
+    /**
+     * An {@link ObjectInputStream} for reading streams written by
+     * {@link Output}.
+     */
+    public static class Input extends ObjectInputStream {
+
+        /**
+         * The dictionary.
+         */
+        protected final IO_ClassDictionary dictionary;
+
+        /**
+         * Create a new instance.
+         *
+         * @param in The stream to read from.
+         * @param dictionary The dictionary.
+         * @throws IOException If encountered.
+         */
+        public Input(InputStream in, IO_ClassDictionary dictionary)
+                throws IOException {
+            super(in);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected void readStreamHeader() throws IOException {
+            short m = readShort();
+            short v = readShort();
+            if (m != MAGIC || v != VERSION) {
+                throw new StreamCorruptedException(String.format(
+                        "invalid stream header: %04X%04X", m, v));
+            }
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException,
+                ClassNotFoundException {
+            return dictionary.get(readInt());
+        }
+    }
+}
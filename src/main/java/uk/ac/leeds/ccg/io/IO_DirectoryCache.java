@@ -0,0 +1,497 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory cache of directory listings for when the same large
+ * directories are listed many times (with {@link IO_Utilities#getList(Path)}
+ * or {@link IO_Utilities#getFiles(Path)}). Each listing holds the
+ * {@link BasicFileAttributes} of each entry.
+ *
+ * Where the file system supports it, each listed directory is registered with
+ * a {@link WatchService} and a daemon thread applies the events to the
+ * listing: created and modified entries have their attributes read again and
+ * deleted entries are removed. If events are lost (an overflow) or the
+ * directory cannot be watched, the listing is checked instead against the last
+ * modified time of the directory each time it is used. A listing taken within
+ * {@link #RACY_MILLIS} of the last modified time of the directory is not
+ * trusted, as a change in that window might not alter the time.
+ *
+ * Events are delivered asynchronously, so a change may not be seen for a
+ * short time after it is made. A caller that has just changed a directory
+ * and needs to see the change can call {@link #invalidate(Path)}.
+ *
+ * At most a maximum number of listings are held: when another is added the
+ * least recently used is discarded and its directory is no longer watched.
+ * A directory is read by one thread at a time, so threads that miss on the
+ * same directory at the same time share one read.
+ *
+ * @version 1.0
+ */
+public class IO_DirectoryCache implements Closeable {
+
+    /**
+     * A listing taken within this many milliseconds of the last modified time
+     * of the directory is checked again the next time it is used.
+     */
+    public static final long RACY_MILLIS = 2000L;
+
+    /**
+     * The default maximum number of listings held.
+     */
+    public static final int DEFAULT_MAX_LISTINGS = 1024;
+
+    /**
+     * The number of locks for reading directories.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * The listings in order of least recently used. Guarded by itself.
+     */
+    protected final Map<Path, Listing> listings;
+
+    /**
+     * For reading each directory one thread at a time. The lock for a
+     * directory is chosen by the hash code of its path.
+     */
+    private final Object[] locks;
+
+    /**
+     * The maximum number of listings held.
+     */
+    protected final int maxListings;
+
+    /**
+     * The watch keys of directories being read, each mapped to true if events
+     * arrived for it before its listing was added to {@link #listings}.
+     */
+    protected final Map<WatchKey, Boolean> reading;
+
+    /**
+     * The watch service or null if directories are not watched.
+     */
+    protected final WatchService ws;
+
+    /**
+     * The number of listings served from memory.
+     */
+    protected final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of listings read from the file system.
+     */
+    protected final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a new instance that watches directories if the default file
+     * system supports it.
+     */
+    public IO_DirectoryCache() {
+        this(true);
+    }
+
+    /**
+     * Create a new instance that holds at most {@link #DEFAULT_MAX_LISTINGS}
+     * listings.
+     *
+     * @param watch If true then directories are watched if the default file
+     * system supports it, otherwise only last modified times are checked.
+     */
+    public IO_DirectoryCache(boolean watch) {
+        this(watch, DEFAULT_MAX_LISTINGS);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param watch If true then directories are watched if the default file
+     * system supports it, otherwise only last modified times are checked.
+     * @param maxListings The maximum number of listings held.
+     */
+    public IO_DirectoryCache(boolean watch, int maxListings) {
+        if (maxListings < 1) {
+            throw new IllegalArgumentException("maxListings < 1");
+        }
+        this.maxListings = maxListings;
+        listings = Collections.synchronizedMap(
+                new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Listing> e) {
+                if (size() <= IO_DirectoryCache.this.maxListings) {
+                    return false;
+                }
+                if (e.getValue().key != null) {
+                    e.getValue().key.cancel();
+                }
+                return true;
+            }
+        });
+        locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        reading = new ConcurrentHashMap<>();
+        WatchService w = null;
+        if (watch) {
+            try {
+                w = FileSystems.getDefault().newWatchService();
+            } catch (IOException | UnsupportedOperationException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+        ws = w;
+        if (ws != null) {
+            Thread t = new Thread(this::processEvents,
+                    "IO_DirectoryCache watcher");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * @param dir The directory to list.
+     * @return A list of files and directories in dir.
+     * @throws IOException If encountered.
+     */
+    public List<Path> getList(Path dir) throws IOException {
+        return new ArrayList<>(getListing(dir).entries.keySet());
+    }
+
+    /**
+     * @param dir The directory to list.
+     * @return A copy of the map from each file and directory in dir to its
+     * attributes (read without following symbolic links).
+     * @throws IOException If encountered.
+     */
+    public Map<Path, BasicFileAttributes> getEntries(Path dir)
+            throws IOException {
+        return new HashMap<>(getListing(dir).entries);
+    }
+
+    /**
+     * @param dir The directory to list.
+     * @return The paths of all files (not directories) in dir and any
+     * subdirectories, as with {@link IO_Utilities#getFiles(Path)} but using
+     * cached listings. Symbolic links are not followed.
+     * @throws IOException If dir is not a directory or if otherwise
+     * encountered.
+     */
+    public List<Path> getFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("Path " + dir + " is not a directory");
+        }
+        List<Path> r = new ArrayList<>();
+        addFiles(dir, r);
+        return r;
+    }
+
+    /**
+     * @param dir The directory.
+     * @param l The list to add the files in dir and its subdirectories to.
+     * @throws IOException If encountered.
+     */
+    protected void addFiles(Path dir, List<Path> l) throws IOException {
+        for (Map.Entry<Path, BasicFileAttributes> e
+                : getListing(dir).entries.entrySet()) {
+            if (e.getValue().isDirectory()) {
+                addFiles(e.getKey(), l);
+            } else {
+                l.add(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Discards the listing of dir so that it is read again the next time it is
+     * used.
+     *
+     * @param dir The directory.
+     */
+    public void invalidate(Path dir) {
+        Listing l = listings.remove(dir);
+        if (l != null && l.key != null) {
+            l.key.cancel();
+        }
+    }
+
+    /**
+     * @return The number of listings served from memory.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of listings read from the file system.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param dir The directory.
+     * @return A valid listing of dir, reading it if necessary. Reading and
+     * adding the listing to {@link #listings} is done holding the lock for
+     * dir, as threads reading the same directory would share a watch key.
+     * @throws IOException If encountered.
+     */
+    protected Listing getListing(Path dir) throws IOException {
+        Listing l = listings.get(dir);
+        if (l != null && l.isValid(dir)) {
+            hits.increment();
+            return l;
+        }
+        synchronized (locks[Math.floorMod(dir.hashCode(), STRIPES)]) {
+            // Another thread may have read dir while waiting.
+            l = listings.get(dir);
+            if (l != null && l.isValid(dir)) {
+                hits.increment();
+                return l;
+            }
+            misses.increment();
+            if (l != null) {
+                invalidate(dir);
+            }
+            l = read(dir);
+            listings.put(dir, l);
+            if (l.key != null && Boolean.TRUE.equals(reading.remove(l.key))) {
+                // Events that arrived while reading were not applied.
+                l.overflow = true;
+            }
+            return l;
+        }
+    }
+
+    /**
+     * Reads a listing of dir, first registering dir with {@link #ws} so that
+     * no change made while reading is missed. Events that arrive before the
+     * listing is added to {@link #listings} are noted in {@link #reading} and
+     * the listing is then marked as having lost events.
+     *
+     * @param dir The directory.
+     * @return The listing.
+     * @throws IOException If encountered.
+     */
+    protected Listing read(Path dir) throws IOException {
+        WatchKey key = null;
+        if (ws != null) {
+            try {
+                key = dir.register(ws, ENTRY_CREATE, ENTRY_DELETE,
+                        ENTRY_MODIFY);
+                reading.put(key, Boolean.FALSE);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Fall back to checking the last modified time.
+                key = null;
+            }
+        }
+        long t = System.currentTimeMillis();
+        FileTime m;
+        Map<Path, BasicFileAttributes> entries = new ConcurrentHashMap<>();
+        try (DirectoryStream<Path> s = Files.newDirectoryStream(dir)) {
+            m = Files.getLastModifiedTime(dir);
+            for (Path p : s) {
+                BasicFileAttributes a = readAttributes(p);
+                if (a != null) {
+                    entries.put(p, a);
+                }
+            }
+        } catch (IOException e) {
+            if (key != null) {
+                reading.remove(key);
+                key.cancel();
+            }
+            throw e;
+        }
+        return new Listing(entries, key, m, t);
+    }
+
+    /**
+     * @param p The path.
+     * @return The attributes of p or null if it does not exist.
+     * @throws IOException If encountered.
+     */
+    private static BasicFileAttributes readAttributes(Path p)
+            throws IOException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies watch events to the listings until {@link #ws} is closed.
+     */
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            // Check for a directory being read before looking up its listing,
+            // so events are not lost if the listing is added in between.
+            if (reading.replace(key, Boolean.TRUE) != null) {
+                key.pollEvents();
+                key.reset();
+                continue;
+            }
+            Listing l = listings.get(dir);
+            for (WatchEvent<?> e : key.pollEvents()) {
+                if (l == null || l.key != key) {
+                    continue;
+                }
+                if (e.kind() == OVERFLOW) {
+                    l.overflow = true;
+                    continue;
+                }
+                Path p = dir.resolve((Path) e.context());
+                if (e.kind() == ENTRY_DELETE) {
+                    l.entries.remove(p);
+                } else {
+                    try {
+                        BasicFileAttributes a = readAttributes(p);
+                        if (a == null) {
+                            l.entries.remove(p);
+                        } else {
+                            l.entries.put(p, a);
+                        }
+                    } catch (IOException ex) {
+                        l.overflow = true;
+                    }
+                }
+            }
+            if (!key.reset() && l != null && l.key == key) {
+                listings.remove(dir, l);
+            }
+        }
+    }
+
+    /**
+     * Stops watching directories and discards all listings.
+     *
+     * @throws IOException If encountered.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ws != null) {
+            ws.close();
+        }
+        listings.clear();
+    }
+
+    /**
+     * A listing of a directory.
+     */
+    protected static class Listing {
+
+        /**
+         * The entries and their attributes.
+         */
+        protected final Map<Path, BasicFileAttributes> entries;
+
+        /**
+         * The watch key or null if the directory is not watched.
+         */
+        protected final WatchKey key;
+
+        /**
+         * The last modified time of the directory when it was listed.
+         */
+        protected final FileTime modified;
+
+        /**
+         * The time in milliseconds when the directory was listed.
+         */
+        protected final long listed;
+
+        /**
+         * Set if watch events were lost.
+         */
+        protected volatile boolean overflow;
+
+        /**
+         * @param entries The entries and their attributes.
+         * @param key The watch key or null if the directory is not watched.
+         * @param modified The last modified time of the directory when it was
+         * listed.
+         * @param listed The time in milliseconds when the directory was
+         * listed.
+         */
+        Listing(Map<Path, BasicFileAttributes> entries, WatchKey key,
+                FileTime modified, long listed) {
+            this.entries = entries;
+            this.key = key;
+            this.modified = modified;
+            this.listed = listed;
+        }
+
+        /**
+         * @param dir The directory.
+         * @return true if this listing can be used.
+         * @throws IOException If encountered.
+         */
+        boolean isValid(Path dir) throws IOException {
+            if (key != null && !overflow) {
+                return key.isValid();
+            }
+            if (listed - modified.toMillis() < RACY_MILLIS) {
+                return false;
+            }
+            FileTime m;
+            try {
+                m = Files.getLastModifiedTime(dir);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            return m.equals(modified);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * For copying a directory tree with many threads. Copying trees with many
+ * small files (such as those of an {@link IO_Cache}) is limited by the number
+ * of I/O operations per second rather than by bandwidth, and a single thread
+ * waits for each operation in turn so cannot reach that limit.
+ *
+ * The tree is traversed by tasks in a {@link ForkJoinPool}, so idle threads
+ * steal work from busy ones. The task for a directory creates the target
+ * directory and then forks a task for each subdirectory and a task for each
+ * batch of {@link #BATCH_SIZE} files, so a directory is always created before
+ * anything is copied into it. The parallelism of the pool is the maximum
+ * number of files copied at once.
+ *
+ * Failures do not stop the copy. They are collected in the {@link Result}
+ * along with counts and rates.
+ *
+ * @version 1.0
+ */
+public class IO_DirectoryCopy {
+
+    /**
+     * The number of files copied by each task.
+     */
+    public static final int BATCH_SIZE = 64;
+
+    /**
+     * The maximum number of failures kept in a {@link Result}.
+     */
+    public static final int MAX_FAILURES = 1000;
+
+    /**
+     * The maximum number of files to copy at once.
+     */
+    protected final int parallelism;
+
+    /**
+     * If true then existing files in the target are replaced.
+     */
+    protected final boolean replaceExisting;
+
+    /**
+     * Create a new instance.
+     *
+     * @param parallelism The maximum number of files to copy at once.
+     * @param replaceExisting If true then existing files in the target are
+     * replaced, otherwise trying to copy over an existing file is a failure.
+     */
+    public IO_DirectoryCopy(int parallelism, boolean replaceExisting) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1");
+        }
+        this.parallelism = parallelism;
+        this.replaceExisting = replaceExisting;
+    }
+
+    /**
+     * Copies the directory at source and everything in it to target. Target
+     * and its parent directories are created if they do not exist. Symbolic
+     * links are copied as links and not followed.
+     *
+     * @param source The directory to copy.
+     * @param target The directory to copy to.
+     * @return The result.
+     * @throws IOException If source is not a directory.
+     */
+    public Result copy(Path source, Path target) throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new IOException("Path " + source + " is not a directory.");
+        }
+        Result r = new Result();
+        long t0 = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirTask(source, target, r));
+        } finally {
+            pool.shutdown();
+        }
+        r.elapsedNanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    /**
+     * @return The options for copying a file.
+     */
+    private CopyOption[] getCopyOptions() {
+        if (replaceExisting) {
+            return new CopyOption[]{LinkOption.NOFOLLOW_LINKS,
+                StandardCopyOption.REPLACE_EXISTING};
+        }
+        return new CopyOption[]{LinkOption.NOFOLLOW_LINKS};
+    }
+
+    /**
+     * Creates a target directory and forks tasks for what is in the source
+     * directory.
+     */
+    private class DirTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The source directory.
+         */
+        final transient Path source;
+
+        /**
+         * The target directory.
+         */
+        final transient Path target;
+
+        /**
+         * The result.
+         */
+        final transient Result r;
+
+        /**
+         * @param source The source directory.
+         * @param target The target directory.
+         * @param r The result.
+         */
+        DirTask(Path source, Path target, Result r) {
+            this.source = source;
+            this.target = target;
+            this.r = r;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Files.createDirectories(target);
+            } catch (IOException e) {
+                r.fail(source, e);
+                return;
+            }
+            r.directories.increment();
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Source> files = new ArrayList<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(source)) {
+                for (Path p : ds) {
+                    // One stat gives both the type and the size.
+                    BasicFileAttributes a;
+                    try {
+                        a = Files.readAttributes(p, BasicFileAttributes.class,
+                                LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        r.fail(p, e);
+                        continue;
+                    }
+                    if (a.isDirectory()) {
+                        DirTask t = new DirTask(p,
+                                target.resolve(p.getFileName().toString()), r);
+                        t.fork();
+                        tasks.add(t);
+                    } else {
+                        files.add(new Source(p, a.size()));
+                        if (files.size() == BATCH_SIZE) {
+                            FilesTask t = new FilesTask(files, target, r);
+                            t.fork();
+                            tasks.add(t);
+                            files = new ArrayList<>();
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                r.fail(source, e);
+            }
+            if (!files.isEmpty()) {
+                new FilesTask(files, target, r).compute();
+            }
+            for (RecursiveAction t : tasks) {
+                t.join();
+            }
+        }
+    }
+
+    /**
+     * A file to copy and its size, as read when listing its directory.
+     *
+     * @param path The path of the file.
+     * @param size The size of the file.
+     */
+    private record Source(Path path, long size) {
+
+    }
+
+    /**
+     * Copies a batch of files into a target directory.
+     */
+    private class FilesTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The files to copy.
+         */
+        final transient List<Source> files;
+
+        /**
+         * The target directory.
+         */
+        final transient Path target;
+
+        /**
+         * The result.
+         */
+        final transient Result r;
+
+        /**
+         * @param files The files to copy.
+         * @param target The target directory.
+         * @param r The result.
+         */
+        FilesTask(List<Source> files, Path target, Result r) {
+            this.files = files;
+            this.target = target;
+            this.r = r;
+        }
+
+        @Override
+        protected void compute() {
+            CopyOption[] o = getCopyOptions();
+            for (Source f : files) {
+                Path p = f.path();
+                try {
+                    Files.copy(p, target.resolve(p.getFileName().toString()),
+                            o);
+                    r.files.increment();
+                    r.bytes.add(f.size());
+                } catch (IOException | RuntimeException e) {
+                    r.fail(p, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A path that could not be copied and why.
+     *
+     * @param path The path in the source.
+     * @param exception The exception.
+     */
+    public record Failure(Path path, Exception exception) {
+
+    }
+
+    /**
+     * The result of a copy.
+     */
+    public static class Result {
+
+        /**
+         * The number of files copied.
+         */
+        protected final LongAdder files = new LongAdder();
+
+        /**
+         * The number of bytes copied.
+         */
+        protected final LongAdder bytes = new LongAdder();
+
+        /**
+         * The number of directories created or found in the target.
+         */
+        protected final LongAdder directories = new LongAdder();
+
+        /**
+         * The number of failures.
+         */
+        protected final LongAdder failureCount = new LongAdder();
+
+        /**
+         * The first {@link #MAX_FAILURES} failures.
+         */
+        protected final List<Failure> failures = new ArrayList<>();
+
+        /**
+         * The time taken in nanoseconds.
+         */
+        protected volatile long elapsedNanos;
+
+        /**
+         * Create a new instance.
+         */
+        Result() {
+        }
+
+        /**
+         * @param p The path.
+         * @param e The exception.
+         */
+        synchronized void fail(Path p, Exception e) {
+            failureCount.increment();
+            if (failures.size() < MAX_FAILURES) {
+                failures.add(new Failure(p, e));
+            }
+        }
+
+        /**
+         * @return The number of files copied.
+         */
+        public long getFiles() {
+            return files.sum();
+        }
+
+        /**
+         * @return The number of bytes copied.
+         */
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * @return The number of directories created or found in the target.
+         */
+        public long getDirectories() {
+            return directories.sum();
+        }
+
+        /**
+         * @return The number of failures.
+         */
+        public long getFailureCount() {
+            return failureCount.sum();
+        }
+
+        /**
+         * @return The first {@link #MAX_FAILURES} failures.
+         */
+        public synchronized List<Failure> getFailures() {
+            return new ArrayList<>(failures);
+        }
+
+        /**
+         * @return The time taken in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return The number of files copied per second.
+         */
+        public double getFilesPerSecond() {
+            return elapsedNanos == 0L ? 0d : getFiles() * 1e9d / elapsedNanos;
+        }
+
+        /**
+         * @return The number of bytes copied per second.
+         */
+        public double getBytesPerSecond() {
+            return elapsedNanos == 0L ? 0d : getBytes() * 1e9d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "IO_DirectoryCopy.Result(files=" + getFiles() + ", bytes="
+                    + getBytes() + ", directories=" + getDirectories()
+                    + ", failures=" + getFailureCount() + ", files/s="
+                    + String.format("%.1f", getFilesPerSecond())
+                    + ", bytes/s=" + String.format("%.1f", getBytesPerSecond())
+                    + ")";
+        }
+    }
+}
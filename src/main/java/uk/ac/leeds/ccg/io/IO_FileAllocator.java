@@ -0,0 +1,123 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * For creating many new files with unique numbered names in one directory.
+ * This is like {@link IO_Utilities#allocateNewFile(Path, String, String)} but
+ * keeps the next number to try in memory for each prefix and suffix, so after
+ * the first file creating each file costs O(1) rather than O(log n) checks for
+ * existing files. The counters belong to the instance, so they are discarded
+ * with it: an instance should not be used after its directory is deleted.
+ *
+ * Unlike {@link IO_Utilities#allocateNewFile(Path, String, String)}, the name
+ * {@code prefix + suffix} without a number is only tried for the first file
+ * with each prefix and suffix, and numbers of files that are deleted are not
+ * reused. Files are created with {@link Files#createFile} which fails rather
+ * than replacing an existing file, so an instance can be used from many
+ * threads, and other processes can create files in the directory at the same
+ * time: the counter moves on past any file that already exists.
+ *
+ * @version 1.0
+ */
+public class IO_FileAllocator {
+
+    /**
+     * The number of names found to exist in a row after which
+     * {@link #allocate(String, String)} searches for the next free number
+     * again.
+     */
+    public static final int MAX_COLLISIONS = 8;
+
+    /**
+     * The directory in which files are created.
+     */
+    protected final Path dir;
+
+    /**
+     * For each prefix and suffix, the next number to try.
+     */
+    protected final Map<String, AtomicLong> counters;
+
+    /**
+     * Create a new instance.
+     *
+     * @param dir The existing directory in which to create files.
+     */
+    public IO_FileAllocator(Path dir) {
+        this.dir = dir;
+        counters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return {@link #dir}.
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Creates a new empty file in {@link #dir} with a name starting
+     * {@code prefix} and ending {@code suffix}. If prefix and suffix are not
+     * both empty then the first time this is called for them the name
+     * {@code prefix + suffix} is tried. Otherwise a number n is inserted
+     * between prefix and suffix. The first n is found with a galloping search
+     * followed by a binary search, which takes O(log n) checks for existing
+     * files numbered from 0, and then n is counted up.
+     *
+     * @param prefix The first part of the filename.
+     * @param suffix The last part of the filename.
+     * @return The path of the file created.
+     * @throws IOException If encountered.
+     */
+    public Path allocate(String prefix, String suffix) throws IOException {
+        String key = prefix + "/" + suffix;
+        AtomicLong c = counters.get(key);
+        if (c == null) {
+            if (!(prefix.isEmpty() && suffix.isEmpty())) {
+                try {
+                    return Files.createFile(dir.resolve(prefix + suffix));
+                } catch (FileAlreadyExistsException e) {
+                    // Try numbered names.
+                }
+            }
+            c = counters.computeIfAbsent(key, k -> new AtomicLong(
+                    IO_Utilities.getFirstFree(dir, prefix, suffix, 0L)));
+        }
+        int collisions = 0;
+        while (true) {
+            long n = c.getAndIncrement();
+            try {
+                return Files.createFile(dir.resolve(prefix + n + suffix));
+            } catch (FileAlreadyExistsException e) {
+                collisions++;
+                if (collisions % MAX_COLLISIONS == 0) {
+                    long f = IO_Utilities.getFirstFree(dir, prefix, suffix,
+                            n + 1);
+                    c.accumulateAndGet(f, Math::max);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the files in a directory tree which lists
+ * directories lazily as it is advanced. Only one directory is open at a time
+ * and what is held in memory is the directories found but not yet listed (and
+ * at most {@link #READ_AHEAD} files), so the first files are available
+ * straight away and the memory used does not depend on the number of files.
+ * Splitting hands over half of the directories not yet listed, so parallel
+ * streams enumerate subdirectories in parallel.
+ *
+ * The attributes of each entry are read once (without following symbolic
+ * links) and are used both to decide whether to descend into it and by the
+ * filter, so callers that need sizes or times do not need to read them again.
+ *
+ * See {@link IO_Utilities#streamFiles(Path)}.
+ *
+ * @version 1.0
+ */
+public class IO_FileSpliterator implements Spliterator<Path> {
+
+    /**
+     * The maximum number of files read ahead by {@link #trySplit()} while
+     * looking for directories to split off.
+     */
+    public static final int READ_AHEAD = 1024;
+
+    /**
+     * Directories found but not yet listed. New directories are added to and
+     * taken from the head, so the tree is traversed depth first; splits take
+     * from the tail.
+     */
+    protected final Deque<Path> pending;
+
+    /**
+     * Which files to include.
+     */
+    protected final BiPredicate<Path, BasicFileAttributes> filter;
+
+    /**
+     * The open streams of this and of all the spliterators split from it, so
+     * that they can be closed by {@link #close()}.
+     */
+    protected final Queue<DirectoryStream<Path>> open;
+
+    /**
+     * Files read but not yet passed on.
+     */
+    protected final Queue<Path> ready;
+
+    /**
+     * The stream of the directory being listed or null.
+     */
+    private DirectoryStream<Path> ds;
+
+    /**
+     * The iterator of {@link #ds}.
+     */
+    private Iterator<Path> it;
+
+    /**
+     * Create a new instance.
+     *
+     * @param dir The directory.
+     * @param filter Which files (entries that are not directories) to include.
+     * @throws IOException If dir is not a directory.
+     */
+    public IO_FileSpliterator(Path dir,
+            BiPredicate<Path, BasicFileAttributes> filter) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("Path " + dir + " is not a directory");
+        }
+        this.pending = new ArrayDeque<>();
+        this.pending.add(dir);
+        this.filter = filter;
+        this.open = new ConcurrentLinkedQueue<>();
+        this.ready = new ArrayDeque<>();
+    }
+
+    /**
+     * For splitting.
+     *
+     * @param pending The directories to list.
+     * @param s The spliterator split from.
+     */
+    private IO_FileSpliterator(Deque<Path> pending, IO_FileSpliterator s) {
+        this.pending = pending;
+        this.filter = s.filter;
+        this.open = s.open;
+        this.ready = new ArrayDeque<>();
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Path> action) {
+        while (ready.isEmpty()) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        action.accept(ready.poll());
+        return true;
+    }
+
+    /**
+     * Reads the next entry, adding it to {@link #pending} if it is a directory
+     * or to {@link #ready} if it is a file for which {@link #filter} is true.
+     *
+     * @return false if there are no more entries.
+     */
+    private boolean fill() {
+        if (it == null) {
+            Path d = pending.pollFirst();
+            if (d == null) {
+                return false;
+            }
+            try {
+                ds = Files.newDirectoryStream(d);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            open.add(ds);
+            it = ds.iterator();
+        }
+        if (it.hasNext()) {
+            Path p = it.next();
+            BasicFileAttributes a;
+            try {
+                a = Files.readAttributes(p, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (a.isDirectory()) {
+                pending.addFirst(p);
+            } else if (filter.test(p, a)) {
+                ready.add(p);
+            }
+        } else {
+            closeCurrent();
+        }
+        return true;
+    }
+
+    /**
+     * Splits off half of the directories not yet listed. If fewer than two
+     * are known, entries are read ahead (keeping up to {@link #READ_AHEAD}
+     * files in {@link #ready}) to find some.
+     *
+     * @return A spliterator for the directories split off or null.
+     */
+    @Override
+    public Spliterator<Path> trySplit() {
+        while (pending.size() < 2 && ready.size() < READ_AHEAD && fill()) {
+            // Read ahead.
+        }
+        int n = pending.size() / 2;
+        if (n == 0 && pending.size() == 1
+                && (it != null || !ready.isEmpty())) {
+            n = 1;
+        }
+        if (n == 0) {
+            return null;
+        }
+        Deque<Path> d = new ArrayDeque<>(n);
+        for (int i = 0; i < n; i++) {
+            d.addFirst(pending.pollLast());
+        }
+        return new IO_FileSpliterator(d, this);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+
+    /**
+     * Closes the stream of the directory being listed.
+     */
+    private void closeCurrent() {
+        if (ds != null) {
+            open.remove(ds);
+            try {
+                ds.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            ds = null;
+        }
+        it = null;
+    }
+
+    /**
+     * Closes any directories left open by this or any spliterator split from
+     * it, for when a traversal ends early.
+     */
+    public void close() {
+        DirectoryStream<Path> s;
+        while ((s = open.poll()) != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Spliterator} over the lines of a range of bytes of a text file,
+ * for processing a large file on many threads. The file is split into ranges
+ * of bytes at line boundaries: a split point is found by going to the middle
+ * of the range and then forward to just after the next newline byte. Each
+ * range is read through its own buffer with positional reads, so ranges can be
+ * read at once on different threads through one {@link FileChannel}.
+ *
+ * In UTF-8 (and in ASCII and the single byte charsets such as ISO-8859-1) the
+ * newline byte 0x0A only ever encodes a newline and never occurs within the
+ * encoding of another character, so splitting at it never splits a character.
+ * Charsets where this is not so, such as UTF-16, are not supported. Lines end
+ * with "\n" or "\r\n", which are not included in the lines.
+ *
+ * See {@link IO_Utilities#lines(java.nio.file.Path, Charset)}.
+ *
+ * @version 1.0
+ */
+public class IO_LineSpliterator implements Spliterator<String> {
+
+    /**
+     * Ranges of fewer bytes than this are not split.
+     */
+    public static final long MIN_SPLIT = 1L << 20;
+
+    /**
+     * The initial size of the buffer of each range.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The newline byte.
+     */
+    private static final byte NL = '\n';
+
+    /**
+     * The channel.
+     */
+    protected final FileChannel fc;
+
+    /**
+     * The charset.
+     */
+    protected final Charset charset;
+
+    /**
+     * The position of the next line.
+     */
+    protected long pos;
+
+    /**
+     * The end of the range (exclusive).
+     */
+    protected final long end;
+
+    /**
+     * The buffer, allocated when first needed.
+     */
+    private byte[] buf;
+
+    /**
+     * The position in the file of buf[0].
+     */
+    private long bufPos;
+
+    /**
+     * The number of bytes in {@link #buf}.
+     */
+    private int bufLen;
+
+    /**
+     * Create a new instance for the lines in the range [start, end) of the
+     * file of fc. The range must start at the start of a line.
+     *
+     * @param fc The channel.
+     * @param charset The charset, such as UTF-8, in which a newline is a
+     * single 0x0A byte that is not part of any other character.
+     * @param start The start of the range.
+     * @param end The end of the range (exclusive).
+     */
+    public IO_LineSpliterator(FileChannel fc, Charset charset, long start,
+            long end) {
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException("Unsupported charset "
+                    + charset);
+        }
+        this.fc = fc;
+        this.charset = charset;
+        this.pos = start;
+        this.end = end;
+    }
+
+    /**
+     * @param charset The charset.
+     * @return true if charset can be split at newline bytes.
+     */
+    public static boolean isSupported(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || (charset.canEncode()
+                && charset.newEncoder().maxBytesPerChar() == 1f
+                && Arrays.equals("\n".getBytes(charset), new byte[]{NL}));
+    }
+
+    /**
+     * Splits the range [start, end) of the file of fc into up to n ranges of
+     * about the same size, each starting at the start of a line.
+     *
+     * @param fc The channel.
+     * @param start The start of the range which must be the start of a line.
+     * @param end The end of the range (exclusive).
+     * @param n The number of ranges.
+     * @return The bounds of the ranges: range i is [r[i], r[i + 1]).
+     * @throws IOException If encountered.
+     */
+    public static long[] split(FileChannel fc, long start, long end, int n)
+            throws IOException {
+        long[] r = new long[n + 1];
+        r[0] = start;
+        int k = 1;
+        for (int i = 1; i < n; i++) {
+            long target = start + (end - start) * i / n;
+            long b = nextLineStart(fc, Math.max(target, r[k - 1]), end);
+            if (b < end && b > r[k - 1]) {
+                r[k++] = b;
+            }
+        }
+        r[k++] = end;
+        return Arrays.copyOf(r, k);
+    }
+
+    /**
+     * @param fc The channel.
+     * @param from The position to search from.
+     * @param end The position to search to (exclusive).
+     * @return The position just after the first newline at or after from, or
+     * end if there is none.
+     * @throws IOException If encountered.
+     */
+    private static long nextLineStart(FileChannel fc, long from, long end)
+            throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(8192);
+        long p = from;
+        while (p < end) {
+            b.clear().limit((int) Math.min(b.capacity(), end - p));
+            int n = fc.read(b, p);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (b.get(i) == NL) {
+                    return p + i + 1;
+                }
+            }
+            p += n;
+        }
+        return end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        try {
+            while (pos < end) {
+                if (buf == null) {
+                    buf = new byte[BUFFER_SIZE];
+                }
+                int s = (int) (pos - bufPos);
+                if (bufLen == 0 || s < 0 || s >= bufLen) {
+                    fill(false);
+                    s = 0;
+                }
+                for (int i = s; i < bufLen; i++) {
+                    if (buf[i] == NL) {
+                        action.accept(decode(s, i));
+                        pos += i - s + 1;
+                        return true;
+                    }
+                }
+                if (bufPos + bufLen >= end) {
+                    // The last line has no newline.
+                    action.accept(decode(s, bufLen));
+                    pos = end;
+                    return true;
+                }
+                // The line continues beyond the buffer.
+                fill(s == 0);
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param from The index in {@link #buf} of the start of the line.
+     * @param to The index in {@link #buf} of the end of the line (exclusive),
+     * which does not include the newline.
+     * @return The line with any trailing carriage return removed.
+     */
+    private String decode(int from, int to) {
+        if (to > from && buf[to - 1] == '\r') {
+            to--;
+        }
+        return new String(buf, from, to - from, charset);
+    }
+
+    /**
+     * Reads into {@link #buf} from {@link #pos}.
+     *
+     * @param grow If true then {@link #buf} is doubled in size first.
+     * @throws IOException If encountered.
+     */
+    private void fill(boolean grow) throws IOException {
+        if (grow) {
+            buf = new byte[Math.multiplyExact(buf.length, 2)];
+        }
+        bufPos = pos;
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length,
+                end - pos));
+        while (b.hasRemaining()) {
+            if (fc.read(b, bufPos + b.position()) < 0) {
+                break;
+            }
+        }
+        bufLen = b.position();
+        if (bufLen == 0) {
+            throw new IOException("Unexpected end of file at " + bufPos);
+        }
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+        if (end - pos < MIN_SPLIT) {
+            return null;
+        }
+        long m;
+        try {
+            m = nextLineStart(fc, pos + (end - pos) / 2, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (m >= end) {
+            return null;
+        }
+        IO_LineSpliterator r = new IO_LineSpliterator(fc, charset, pos, m);
+        pos = m;
+        bufLen = 0;
+        return r;
+    }
+
+    /**
+     * @return The number of bytes left, as an estimate of the number of
+     * lines.
+     */
+    @Override
+    public long estimateSize() {
+        return end - pos;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,608 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pipeline of stages which items flow through from a source, for jobs which
+ * list inputs (e.g. with {@link IO_Utilities#getFiles(Path)}), read and parse
+ * them, transform them and store the results (e.g. with
+ * {@link IO_Cache#add(Object)}). For example:
+ * <pre>
+ * IO_Pipeline.files(dir)
+ *         .io("read", 16, f -&gt; parse(f))
+ *         .cpu("transform", 8, x -&gt; transform(x))
+ *         .io("store", 4, y -&gt; { cache.add(y); return y; })
+ *         .run();
+ * </pre>
+ * Each stage has a number of workers which take items from a bounded queue,
+ * apply the step of the stage and put the results on the queue for the next
+ * stage. As the queues are bounded, a worker blocks if the next stage is
+ * behind, so fast stages cannot overrun slow ones and memory use is bounded.
+ * The workers of stages that mostly wait for I/O are virtual threads, so there
+ * can be many of them cheaply. The workers of stages that are CPU bound run
+ * in a {@link ForkJoinPool} for the stage, so there should be about as many of
+ * them as there are cores.
+ *
+ * A step that returns null drops the item. A step that throws an exception
+ * also drops the item; the exception is counted for the stage and kept in the
+ * {@link Result} (up to {@link #MAX_FAILURES} of them). If a step throws an
+ * Error or an InterruptedException the worker stops, the throwable is kept in
+ * the {@link Result} and the pipeline is aborted: all the workers are stopped
+ * and {@link #run()} returns a result for which {@link Result#isAborted()} is
+ * true. Pipelines are immutable: each method that adds a stage or changes a
+ * setting returns a new pipeline.
+ *
+ * @param <T> The type of the items output by the last stage.
+ * @version 1.0
+ */
+public class IO_Pipeline<T> {
+
+    /**
+     * The default capacity of each queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The maximum number of exceptions kept in a {@link Result}.
+     */
+    public static final int MAX_FAILURES = 100;
+
+    /**
+     * Put on a queue after the last item.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * A step of a stage.
+     *
+     * @param <I> The type of input items.
+     * @param <O> The type of output items.
+     */
+    @FunctionalInterface
+    public interface Step<I, O> {
+
+        /**
+         * @param i An input item.
+         * @return The output item or null to drop it.
+         * @throws Exception If encountered.
+         */
+        O apply(I i) throws Exception;
+    }
+
+    /**
+     * The source of items.
+     */
+    protected final Iterable<?> source;
+
+    /**
+     * The stages.
+     */
+    protected final List<Stage> stages;
+
+    /**
+     * The capacity of each queue.
+     */
+    protected final int queueCapacity;
+
+    /**
+     * Create a new instance.
+     *
+     * @param source The source of items.
+     * @param stages The stages.
+     * @param queueCapacity The capacity of each queue.
+     */
+    protected IO_Pipeline(Iterable<?> source, List<Stage> stages,
+            int queueCapacity) {
+        this.source = source;
+        this.stages = stages;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param <T> The type of the items.
+     * @param source The source of items.
+     * @return A pipeline with no stages.
+     */
+    public static <T> IO_Pipeline<T> of(Iterable<T> source) {
+        return new IO_Pipeline<>(source, List.of(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param dir The directory.
+     * @return A pipeline with no stages whose source is the files in dir and
+     * its subdirectories as listed by {@link IO_Utilities#getFiles(Path)}.
+     * @throws IOException If encountered.
+     */
+    public static IO_Pipeline<Path> files(Path dir) throws IOException {
+        return of(IO_Utilities.getFiles(dir));
+    }
+
+    /**
+     * @param queueCapacity The capacity of each queue.
+     * @return A copy of this pipeline with queues of capacity queueCapacity.
+     */
+    public IO_Pipeline<T> queueCapacity(int queueCapacity) {
+        return new IO_Pipeline<>(source, stages, queueCapacity);
+    }
+
+    /**
+     * @param <R> The type of the items output by the stage.
+     * @param name The name of the stage.
+     * @param parallelism The number of workers for the stage.
+     * @param step The step of the stage.
+     * @return A copy of this pipeline with an I/O bound stage added, the
+     * workers of which are virtual threads.
+     */
+    public <R> IO_Pipeline<R> io(String name, int parallelism,
+            Step<? super T, ? extends R> step) {
+        return add(new Stage(name, parallelism, false, step));
+    }
+
+    /**
+     * @param <R> The type of the items output by the stage.
+     * @param name The name of the stage.
+     * @param parallelism The number of workers for the stage.
+     * @param step The step of the stage.
+     * @return A copy of this pipeline with a CPU bound stage added, the
+     * workers of which run in a {@link ForkJoinPool}.
+     */
+    public <R> IO_Pipeline<R> cpu(String name, int parallelism,
+            Step<? super T, ? extends R> step) {
+        return add(new Stage(name, parallelism, true, step));
+    }
+
+    /**
+     * @param <R> The type of the items output by the stage.
+     * @param s The stage.
+     * @return A copy of this pipeline with s added.
+     */
+    private <R> IO_Pipeline<R> add(Stage s) {
+        if (s.parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1");
+        }
+        List<Stage> l = new ArrayList<>(stages);
+        l.add(s);
+        return new IO_Pipeline<>(source, Collections.unmodifiableList(l),
+                queueCapacity);
+    }
+
+    /**
+     * Runs the pipeline until all the items from the source have been through
+     * all the stages.
+     *
+     * @return The result.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public Result run() throws InterruptedException {
+        Result r = new Result(stages);
+        long t0 = System.nanoTime();
+        int n = stages.size();
+        List<BlockingQueue<Object>> qs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            qs.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        List<ExecutorService> es = new ArrayList<>();
+        int workers = 0;
+        for (Stage s : stages) {
+            workers += s.parallelism;
+        }
+        CountDownLatch done = new CountDownLatch(workers + 1);
+        Runnable abort = () -> {
+            r.aborted = true;
+            while (done.getCount() > 0L) {
+                done.countDown();
+            }
+        };
+        Thread feeder = null;
+        try {
+            for (int i = 0; i < n; i++) {
+                Stage s = stages.get(i);
+                ExecutorService e = s.cpu ? new ForkJoinPool(s.parallelism)
+                        : Executors.newVirtualThreadPerTaskExecutor();
+                es.add(e);
+                BlockingQueue<Object> in = qs.get(i);
+                BlockingQueue<Object> out = i + 1 < n ? qs.get(i + 1) : null;
+                int next = i + 1 < n ? stages.get(i + 1).parallelism : 0;
+                Metrics m = r.stages.get(i);
+                AtomicInteger remaining = new AtomicInteger(s.parallelism);
+                for (int w = 0; w < s.parallelism; w++) {
+                    e.execute(() -> {
+                        try {
+                            work(s, in, out, next, remaining, m, r, abort);
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            feeder = Thread.ofVirtual().name("IO_Pipeline source").start(() -> {
+                try {
+                    feed(n == 0 ? null : qs.get(0),
+                            n == 0 ? 0 : stages.get(0).parallelism, r);
+                } finally {
+                    done.countDown();
+                }
+            });
+            done.await();
+        } finally {
+            if (feeder != null) {
+                feeder.interrupt();
+            }
+            for (ExecutorService e : es) {
+                e.shutdownNow();
+            }
+            for (ExecutorService e : es) {
+                e.awaitTermination(1L, TimeUnit.MINUTES);
+            }
+        }
+        r.elapsedNanos = System.nanoTime() - t0;
+        return r;
+    }
+
+    /**
+     * Puts the items of {@link #source} on q followed by an end marker for
+     * each of the workers of the first stage.
+     *
+     * @param q The queue of the first stage or null if there are no stages.
+     * @param workers The number of workers of the first stage.
+     * @param r The result.
+     */
+    private void feed(BlockingQueue<Object> q, int workers, Result r) {
+        try {
+            try {
+                for (Object o : source) {
+                    r.sourced.increment();
+                    if (q != null) {
+                        q.put(o);
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                r.fail(e);
+            }
+            for (int i = 0; i < workers; i++) {
+                q.put(END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The loop of a worker. Whether the worker stops at the end marker or
+     * because of an Error or interruption, it counts itself out of remaining
+     * and the last worker of the stage to stop puts an end marker for each of
+     * the workers of the next stage. A worker that stops other than at the end
+     * marker keeps the throwable in r and calls abort.
+     *
+     * @param s The stage.
+     * @param in The input queue.
+     * @param out The output queue or null for the last stage.
+     * @param next The number of workers of the next stage.
+     * @param remaining The number of workers of the stage still working.
+     * @param m The metrics of the stage.
+     * @param r The result.
+     * @param abort For aborting the pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    private static void work(Stage s, BlockingQueue<Object> in,
+            BlockingQueue<Object> out, int next, AtomicInteger remaining,
+            Metrics m, Result r, Runnable abort) {
+        Step<Object, Object> f = (Step<Object, Object>) s.step;
+        boolean ended = false;
+        try {
+            while (true) {
+                Object x = in.take();
+                if (x == END) {
+                    ended = true;
+                    return;
+                }
+                m.in.increment();
+                long t = System.nanoTime();
+                Object y;
+                try {
+                    y = f.apply(x);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    m.errors.increment();
+                    r.fail(e);
+                    continue;
+                } finally {
+                    m.busyNanos.add(System.nanoTime() - t);
+                }
+                if (y != null) {
+                    m.out.increment();
+                    if (out != null) {
+                        out.put(y);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            if (!r.aborted) {
+                r.fail(e);
+            }
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            r.fail(e);
+        } finally {
+            if (remaining.decrementAndGet() == 0 && out != null) {
+                end(out, next, ended);
+            }
+            if (!ended) {
+                abort.run();
+            }
+        }
+    }
+
+    /**
+     * Puts n end markers on q. If ended is false the pipeline is being aborted
+     * so this does not wait for space on q.
+     *
+     * @param q The queue.
+     * @param n The number of end markers.
+     * @param ended false if the pipeline is being aborted.
+     */
+    private static void end(BlockingQueue<Object> q, int n, boolean ended) {
+        try {
+            for (int i = 0; i < n; i++) {
+                if (ended) {
+                    q.put(END);
+                } else if (!q.offer(END)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A stage of a pipeline.
+     */
+    protected static class Stage {
+
+        /**
+         * The name.
+         */
+        final String name;
+
+        /**
+         * The number of workers.
+         */
+        final int parallelism;
+
+        /**
+         * true if CPU bound.
+         */
+        final boolean cpu;
+
+        /**
+         * The step.
+         */
+        final Step<?, ?> step;
+
+        /**
+         * @param name The name.
+         * @param parallelism The number of workers.
+         * @param cpu true if CPU bound.
+         * @param step The step.
+         */
+        Stage(String name, int parallelism, boolean cpu, Step<?, ?> step) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.cpu = cpu;
+            this.step = step;
+        }
+    }
+
+    /**
+     * The metrics of a stage.
+     */
+    public static class Metrics {
+
+        /**
+         * The name of the stage.
+         */
+        public final String name;
+
+        /**
+         * The number of items input.
+         */
+        protected final LongAdder in = new LongAdder();
+
+        /**
+         * The number of items output.
+         */
+        protected final LongAdder out = new LongAdder();
+
+        /**
+         * The number of items for which the step threw an exception.
+         */
+        protected final LongAdder errors = new LongAdder();
+
+        /**
+         * The total time in nanoseconds spent by workers in the step.
+         */
+        protected final LongAdder busyNanos = new LongAdder();
+
+        /**
+         * The result this is part of.
+         */
+        private final Result result;
+
+        /**
+         * @param name The name of the stage.
+         * @param result The result this is part of.
+         */
+        Metrics(String name, Result result) {
+            this.name = name;
+            this.result = result;
+        }
+
+        /**
+         * @return The number of items input.
+         */
+        public long getIn() {
+            return in.sum();
+        }
+
+        /**
+         * @return The number of items output.
+         */
+        public long getOut() {
+            return out.sum();
+        }
+
+        /**
+         * @return The number of items for which the step threw an exception.
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return The total time in nanoseconds spent by workers in the step.
+         */
+        public long getBusyNanos() {
+            return busyNanos.sum();
+        }
+
+        /**
+         * @return The number of items input per second over the run of the
+         * pipeline.
+         */
+        public double getThroughput() {
+            long t = result.getElapsedNanos();
+            return t == 0L ? 0d : getIn() * 1e9d / t;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(in=" + getIn() + ", out=" + getOut() + ", errors="
+                    + getErrors() + ", throughput="
+                    + String.format("%.1f", getThroughput()) + "/s)";
+        }
+    }
+
+    /**
+     * The result of running a pipeline.
+     */
+    public static class Result {
+
+        /**
+         * The metrics of each stage.
+         */
+        protected final List<Metrics> stages;
+
+        /**
+         * The number of items from the source.
+         */
+        protected final LongAdder sourced = new LongAdder();
+
+        /**
+         * Exceptions and Errors thrown by the source and steps.
+         */
+        protected final List<Throwable> failures = new ArrayList<>();
+
+        /**
+         * Set if the pipeline was aborted.
+         */
+        protected volatile boolean aborted;
+
+        /**
+         * The time taken in nanoseconds.
+         */
+        protected volatile long elapsedNanos;
+
+        /**
+         * @param l The stages.
+         */
+        Result(List<Stage> l) {
+            List<Metrics> ms = new ArrayList<>();
+            for (Stage s : l) {
+                ms.add(new Metrics(s.name, this));
+            }
+            stages = Collections.unmodifiableList(ms);
+        }
+
+        /**
+         * @param e An exception or Error to keep.
+         */
+        synchronized void fail(Throwable e) {
+            if (failures.size() < MAX_FAILURES) {
+                failures.add(e);
+            }
+        }
+
+        /**
+         * @return The metrics of each stage.
+         */
+        public List<Metrics> getStages() {
+            return stages;
+        }
+
+        /**
+         * @return The number of items from the source.
+         */
+        public long getSourced() {
+            return sourced.sum();
+        }
+
+        /**
+         * @return Exceptions and Errors thrown by the source and steps.
+         */
+        public synchronized List<Throwable> getFailures() {
+            return new ArrayList<>(failures);
+        }
+
+        /**
+         * @return true if the pipeline was aborted because a worker stopped
+         * before the end of its input.
+         */
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        /**
+         * @return The time taken in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "IO_Pipeline.Result(sourced=" + getSourced() + ", stages="
+                    + stages + ", failures=" + getFailures().size()
+                    + ", aborted=" + isAborted() + ")";
+        }
+    }
+}
@@ -0,0 +1,578 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A container file holding many serialized Objects (records), for bulk
+ * datasets that would otherwise be millions of small files each written with
+ * {@link IO_Utilities#writeObject(Object, Path)}. Records are written and
+ * read sequentially in blocks through buffers, and each block can be
+ * compressed with a {@link Deflater}.
+ *
+ * The file is a header, then the blocks, then a sparse index with the number
+ * of the first record and the offset of each block, then a trailer. Each block
+ * is a header (the length of the block uncompressed, the length stored and the
+ * number of records) followed by the records, each an int length followed by
+ * a complete serialization stream. The index allows reading to start at any
+ * record by reading only the block containing it.
+ *
+ * @version 1.0
+ */
+public class IO_RecordContainer implements Closeable {
+
+    /**
+     * The first 4 bytes of a container ("IORC").
+     */
+    public static final int MAGIC = 0x494f5243;
+
+    /**
+     * The format version.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The default number of records in a block.
+     */
+    public static final int DEFAULT_BLOCK_RECORDS = 1024;
+
+    /**
+     * The length of the file header: magic, version, flags.
+     */
+    private static final int HEADER = Integer.BYTES + 2 * Short.BYTES;
+
+    /**
+     * The length of a block header: uncompressed length, stored length, number
+     * of records.
+     */
+    private static final int BLOCK_HEADER = 3 * Integer.BYTES;
+
+    /**
+     * The length of the trailer: index offset, number of records, number of
+     * blocks, magic.
+     */
+    private static final int TRAILER = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    /**
+     * The flag for compressed blocks.
+     */
+    private static final short COMPRESSED = 1;
+
+    /**
+     * The channel.
+     */
+    protected final FileChannel fc;
+
+    /**
+     * Whether blocks are compressed.
+     */
+    protected final boolean compressed;
+
+    /**
+     * The number of the first record in each block.
+     */
+    protected final long[] firstRecords;
+
+    /**
+     * The offset of each block.
+     */
+    protected final long[] offsets;
+
+    /**
+     * The number of records.
+     */
+    protected final long count;
+
+    /**
+     * Opens the container at f for reading.
+     *
+     * @param f The file.
+     * @throws IOException If encountered or if f is not a container.
+     */
+    public IO_RecordContainer(Path f) throws IOException {
+        fc = FileChannel.open(f, READ);
+        try {
+            long size = fc.size();
+            if (size < HEADER + TRAILER) {
+                throw new IOException("Path " + f + " is not a container.");
+            }
+            ByteBuffer h = read(0L, HEADER);
+            ByteBuffer t = read(size - TRAILER, TRAILER);
+            if (h.getInt() != MAGIC || t.getInt(TRAILER - Integer.BYTES)
+                    != MAGIC) {
+                throw new IOException("Path " + f + " is not a container.");
+            }
+            if (h.getShort() != VERSION) {
+                throw new IOException("Unsupported version in " + f);
+            }
+            compressed = (h.getShort() & COMPRESSED) != 0;
+            long indexOffset = t.getLong();
+            count = t.getLong();
+            int blocks = t.getInt();
+            ByteBuffer ib = read(indexOffset, blocks * 2 * Long.BYTES);
+            firstRecords = new long[blocks];
+            offsets = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstRecords[i] = ib.getLong();
+                offsets[i] = ib.getLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            fc.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the records from it to a container at f, replacing any existing
+     * file. This uses {@link #DEFAULT_BLOCK_RECORDS} and no compression.
+     *
+     * @param it The records.
+     * @param f The file.
+     * @return The number of records written.
+     * @throws IOException If encountered.
+     */
+    public static long write(Iterator<?> it, Path f) throws IOException {
+        return write(it, f, DEFAULT_BLOCK_RECORDS, false);
+    }
+
+    /**
+     * Writes the records from it to a container at f, replacing any existing
+     * file.
+     *
+     * @param it The records.
+     * @param f The file.
+     * @param blockRecords The number of records in each block.
+     * @param compress If true then blocks are compressed.
+     * @return The number of records written.
+     * @throws IOException If encountered.
+     */
+    public static long write(Iterator<?> it, Path f, int blockRecords,
+            boolean compress) throws IOException {
+        if (blockRecords < 1) {
+            throw new IllegalArgumentException("blockRecords < 1");
+        }
+        try (FileChannel out = FileChannel.open(f, CREATE, WRITE,
+                TRUNCATE_EXISTING)) {
+            Writer w = new Writer(out, compress);
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putInt(MAGIC).putShort(VERSION)
+                    .putShort(compress ? COMPRESSED : 0).flip();
+            w.write(h);
+            IO_Serializer s = IO_Serializer.get();
+            long n = 0L;
+            while (it.hasNext()) {
+                ByteBuffer b = s.serialize(it.next());
+                w.add(b);
+                n++;
+                if (w.records == blockRecords) {
+                    w.flushBlock(n - blockRecords);
+                }
+            }
+            if (w.records > 0) {
+                w.flushBlock(n - w.records);
+            }
+            w.finish(n);
+            return n;
+        }
+    }
+
+    /**
+     * @return The number of records.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return A lazy stream of all the records. The stream reads one block at
+     * a time as it is consumed and should be closed to close this container.
+     */
+    public Stream<Object> stream() {
+        return stream(0L);
+    }
+
+    /**
+     * @param from The number of the first record to stream.
+     * @return A lazy stream of the records from record number from. Only the
+     * block containing that record and those after it are read. The stream
+     * should be closed to close this container.
+     */
+    public Stream<Object> stream(long from) {
+        Iterator<Object> it = new RecordIterator(from);
+        return StreamSupport.stream(Spliterators.spliterator(it,
+                Math.max(0L, count - from), Spliterator.ORDERED
+                | Spliterator.NONNULL), false).onClose(() -> {
+                    try {
+                        close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * @param n The number of the record.
+     * @return Record n, reading only the block containing it.
+     * @throws IOException If encountered.
+     * @throws ClassNotFoundException If the class of the record cannot be
+     * found.
+     */
+    public Object get(long n) throws IOException, ClassNotFoundException {
+        if (n < 0L || n >= count) {
+            throw new IndexOutOfBoundsException("Record " + n + " of "
+                    + count);
+        }
+        int b = getBlock(n);
+        ByteBuffer bb = readBlock(b);
+        for (long i = firstRecords[b]; i < n; i++) {
+            bb.position(bb.position() + Integer.BYTES + bb.getInt(
+                    bb.position()));
+        }
+        return readRecord(bb);
+    }
+
+    /**
+     * @param n The number of a record.
+     * @return The index of the block containing record n.
+     */
+    protected int getBlock(long n) {
+        int b = Arrays.binarySearch(firstRecords, n);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    /**
+     * @param b The index of a block.
+     * @return The records of block b uncompressed from position 0.
+     * @throws IOException If encountered.
+     */
+    protected ByteBuffer readBlock(int b) throws IOException {
+        ByteBuffer h = read(offsets[b], BLOCK_HEADER);
+        int length = h.getInt();
+        int stored = h.getInt();
+        ByteBuffer r = read(offsets[b] + BLOCK_HEADER, stored);
+        if (!compressed) {
+            return r;
+        }
+        byte[] a = new byte[length];
+        Inflater inf = new Inflater();
+        try {
+            inf.setInput(r.array(), 0, stored);
+            int n = 0;
+            while (n < length && !inf.finished()) {
+                int k = inf.inflate(a, n, length - n);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != length) {
+                throw new IOException("Corrupt block " + b);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + b, e);
+        } finally {
+            inf.end();
+        }
+        return ByteBuffer.wrap(a);
+    }
+
+    /**
+     * Reads the record at the position of bb and advances past it.
+     *
+     * @param bb The buffer.
+     * @return The record.
+     * @throws IOException If encountered.
+     * @throws ClassNotFoundException If the class of the record cannot be
+     * found.
+     */
+    private static Object readRecord(ByteBuffer bb) throws IOException,
+            ClassNotFoundException {
+        int n = bb.getInt();
+        int p = bb.position();
+        bb.position(p + n);
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bb.array(), bb.arrayOffset() + p,
+                        n))) {
+            return ois.readUnshared();
+        }
+    }
+
+    /**
+     * @param pos The position.
+     * @param n The number of bytes.
+     * @return A buffer of the n bytes at pos.
+     * @throws IOException If encountered.
+     */
+    private ByteBuffer read(long pos, int n) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(n);
+        while (b.hasRemaining()) {
+            if (fc.read(b, pos + b.position()) < 0) {
+                throw new IOException("Unexpected end of container.");
+            }
+        }
+        return b.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        fc.close();
+    }
+
+    /**
+     * Iterates over records reading a block at a time.
+     */
+    private class RecordIterator implements Iterator<Object> {
+
+        /**
+         * The number of the next record.
+         */
+        long next;
+
+        /**
+         * The index of the next block to read.
+         */
+        int block;
+
+        /**
+         * The records of the current block or null.
+         */
+        ByteBuffer bb;
+
+        /**
+         * The number of records left in {@link #bb}.
+         */
+        long left;
+
+        /**
+         * @param from The number of the first record.
+         */
+        RecordIterator(long from) {
+            next = Math.max(0L, from);
+            if (next < count) {
+                block = getBlock(next);
+                load();
+                for (long i = firstRecords[block - 1]; i < next; i++) {
+                    bb.position(bb.position() + Integer.BYTES
+                            + bb.getInt(bb.position()));
+                    left--;
+                }
+            }
+        }
+
+        /**
+         * Reads the next block.
+         */
+        private void load() {
+            try {
+                bb = readBlock(block);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            long end = block + 1 < offsets.length ? firstRecords[block + 1]
+                    : count;
+            left = end - firstRecords[block];
+            block++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (left == 0L) {
+                load();
+            }
+            left--;
+            next++;
+            try {
+                return readRecord(bb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ClassNotFoundException e) {
+                throw new UncheckedIOException(new IOException(e));
+            }
+        }
+    }
+
+    /**
+     * Buffers records into blocks and writes them.
+     */
+    private static class Writer {
+
+        /**
+         * The channel.
+         */
+        final FileChannel out;
+
+        /**
+         * For compressing blocks or null.
+         */
+        final Deflater def;
+
+        /**
+         * The block being built.
+         */
+        ByteBuffer block = ByteBuffer.allocate(IO_Cache.DEFAULT_BUFFER_SIZE);
+
+        /**
+         * For compressed blocks.
+         */
+        byte[] packed = new byte[0];
+
+        /**
+         * The number of records in {@link #block}.
+         */
+        int records;
+
+        /**
+         * The position in the file.
+         */
+        long pos;
+
+        /**
+         * The index: pairs of first record and offset.
+         */
+        long[] index = new long[32];
+
+        /**
+         * The number of blocks.
+         */
+        int blocks;
+
+        /**
+         * @param out The channel.
+         * @param compress If true blocks are compressed.
+         */
+        Writer(FileChannel out, boolean compress) {
+            this.out = out;
+            this.def = compress ? new Deflater() : null;
+        }
+
+        /**
+         * @param b A serialized record.
+         */
+        void add(ByteBuffer b) {
+            int n = b.remaining();
+            if (block.remaining() < Integer.BYTES + n) {
+                ByteBuffer g = ByteBuffer.allocate(Math.max(
+                        block.capacity() << 1, block.position()
+                        + Integer.BYTES + n));
+                block.flip();
+                g.put(block);
+                block = g;
+            }
+            block.putInt(n).put(b);
+            records++;
+        }
+
+        /**
+         * Writes the current block.
+         *
+         * @param first The number of its first record.
+         * @throws IOException If encountered.
+         */
+        void flushBlock(long first) throws IOException {
+            if (blocks * 2 == index.length) {
+                index = Arrays.copyOf(index, index.length << 1);
+            }
+            index[blocks * 2] = first;
+            index[blocks * 2 + 1] = pos;
+            blocks++;
+            int length = block.position();
+            ByteBuffer data;
+            if (def == null) {
+                data = block.flip();
+            } else {
+                def.reset();
+                def.setInput(block.array(), 0, length);
+                def.finish();
+                int n = 0;
+                while (!def.finished()) {
+                    if (n == packed.length) {
+                        packed = Arrays.copyOf(packed, Math.max(1024,
+                                packed.length << 1));
+                    }
+                    n += def.deflate(packed, n, packed.length - n);
+                }
+                data = ByteBuffer.wrap(packed, 0, n);
+            }
+            ByteBuffer h = ByteBuffer.allocate(BLOCK_HEADER);
+            h.putInt(length).putInt(data.remaining()).putInt(records).flip();
+            write(h);
+            write(data);
+            block.clear();
+            records = 0;
+        }
+
+        /**
+         * Writes the index and trailer.
+         *
+         * @param count The number of records.
+         * @throws IOException If encountered.
+         */
+        void finish(long count) throws IOException {
+            long indexOffset = pos;
+            ByteBuffer b = ByteBuffer.allocate(blocks * 2 * Long.BYTES
+                    + TRAILER);
+            for (int i = 0; i < blocks * 2; i++) {
+                b.putLong(index[i]);
+            }
+            b.putLong(indexOffset).putLong(count).putInt(blocks).putInt(MAGIC);
+            write(b.flip());
+            if (def != null) {
+                def.end();
+            }
+        }
+
+        /**
+         * @param b The bytes to write.
+         * @throws IOException If encountered.
+         */
+        void write(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) {
+                pos += out.write(b);
+            }
+        }
+    }
+}
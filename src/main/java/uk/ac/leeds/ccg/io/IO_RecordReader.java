@@ -0,0 +1,560 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * For reading delimited text records (e.g. CSV without quoting) a line at a
+ * time without creating Strings. Lines are found by scanning bytes for
+ * newlines and fields by scanning for a delimiter byte. Fields are exposed as
+ * {@link Field} views of the bytes which are reused from line to line, and
+ * {@link #getLong(int)} and {@link #getDouble(int)} parse numbers straight
+ * from the bytes, so scanning a numeric file creates no garbage per line.
+ *
+ * The bytes come either from a file, read through a buffer that is reused
+ * (and grown if a line is longer than it), or from a given
+ * {@link ByteBuffer}, such as one mapped with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}. The views and
+ * what they return are only valid until {@link #next()} is called again.
+ *
+ * The delimiter must be a single byte character, so this works for UTF-8,
+ * ASCII and ISO-8859-1 text. Fields used as a {@link CharSequence} decode each
+ * byte as one char (ISO-8859-1); use {@link Field#toString(Charset)} for
+ * fields that may hold other UTF-8 characters.
+ *
+ * @version 1.0
+ */
+public class IO_RecordReader implements Closeable {
+
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6,
+        1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+        1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * The channel or null if reading from a given buffer.
+     */
+    protected final FileChannel fc;
+
+    /**
+     * The delimiter.
+     */
+    protected final byte delimiter;
+
+    /**
+     * The bytes.
+     */
+    protected ByteBuffer bb;
+
+    /**
+     * The start of the current line in {@link #bb}.
+     */
+    protected int lineStart;
+
+    /**
+     * The end of the current line in {@link #bb} (exclusive, not including the
+     * line terminator).
+     */
+    protected int lineEnd;
+
+    /**
+     * The position in {@link #bb} of the next line.
+     */
+    protected int next;
+
+    /**
+     * The end of the bytes in {@link #bb}.
+     */
+    protected int limit;
+
+    /**
+     * Set when {@link #fc} has no more bytes.
+     */
+    protected boolean eof;
+
+    /**
+     * The start of each field of the current line. The field ends at the start
+     * of the next field minus 1 or for the last field at {@link #lineEnd}.
+     */
+    protected int[] starts = new int[16];
+
+    /**
+     * The number of fields in the current line.
+     */
+    protected int fieldCount;
+
+    /**
+     * The views of fields.
+     */
+    private Field[] fields = new Field[0];
+
+    /**
+     * Opens the file at f for reading with a buffer of
+     * {@link IO_Cache#DEFAULT_BUFFER_SIZE} bytes.
+     *
+     * @param f The file.
+     * @param delimiter The delimiter, e.g. {@code (byte) ','}.
+     * @throws IOException If encountered.
+     */
+    public IO_RecordReader(Path f, byte delimiter) throws IOException {
+        this.fc = FileChannel.open(f, READ);
+        this.delimiter = delimiter;
+        this.bb = ByteBuffer.allocate(IO_Cache.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads from the bytes of b from its position to its limit.
+     *
+     * @param b The bytes.
+     * @param delimiter The delimiter, e.g. {@code (byte) ','}.
+     */
+    public IO_RecordReader(ByteBuffer b, byte delimiter) {
+        this.fc = null;
+        this.delimiter = delimiter;
+        this.bb = b;
+        this.next = b.position();
+        this.limit = b.limit();
+        this.eof = true;
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return false if there are no more lines.
+     * @throws IOException If encountered.
+     */
+    public boolean next() throws IOException {
+        int i = next;
+        while (true) {
+            while (i < limit && bb.get(i) != '\n') {
+                i++;
+            }
+            if (i < limit || eof) {
+                break;
+            }
+            i -= fill();
+        }
+        if (next >= limit) {
+            fieldCount = 0;
+            return false;
+        }
+        lineStart = next;
+        lineEnd = i;
+        next = i < limit ? i + 1 : i;
+        if (lineEnd > lineStart && bb.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        split();
+        return true;
+    }
+
+    /**
+     * Moves the bytes from {@link #next} to the start of {@link #bb}, grows it
+     * if it is full and reads more bytes.
+     *
+     * @return The number of bytes moved down by.
+     * @throws IOException If encountered.
+     */
+    private int fill() throws IOException {
+        int shift = next;
+        int n = limit - next;
+        if (n == bb.capacity()) {
+            ByteBuffer g = ByteBuffer.allocate(Math.multiplyExact(n, 2));
+            System.arraycopy(bb.array(), 0, g.array(), 0, n);
+            bb = g;
+        } else if (shift > 0) {
+            System.arraycopy(bb.array(), shift, bb.array(), 0, n);
+        }
+        next = 0;
+        limit = n;
+        bb.limit(bb.capacity()).position(limit);
+        int r = fc.read(bb);
+        if (r < 0) {
+            eof = true;
+        } else {
+            limit += r;
+        }
+        return shift;
+    }
+
+    /**
+     * Finds the fields of the current line.
+     */
+    private void split() {
+        int n = 0;
+        starts[n++] = lineStart;
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (bb.get(i) == delimiter) {
+                if (n == starts.length) {
+                    starts = Arrays.copyOf(starts, n << 1);
+                }
+                starts[n++] = i + 1;
+            }
+        }
+        fieldCount = n;
+    }
+
+    /**
+     * @return The number of fields in the current line.
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param i The index of the field.
+     * @return The start of field i in {@link #bb}.
+     */
+    private int start(int i) {
+        if (i < 0 || i >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + i + " of "
+                    + fieldCount);
+        }
+        return starts[i];
+    }
+
+    /**
+     * @param i The index of the field.
+     * @return The end of field i in {@link #bb} (exclusive).
+     */
+    private int end(int i) {
+        return i + 1 < fieldCount ? starts[i + 1] - 1 : lineEnd;
+    }
+
+    /**
+     * @param i The index of the field.
+     * @return A view of field i which is reused for field i of each line.
+     */
+    public Field getField(int i) {
+        int s = start(i);
+        if (i >= fields.length) {
+            int n = fields.length;
+            fields = Arrays.copyOf(fields, Math.max(i + 1, n << 1));
+            for (int j = n; j < fields.length; j++) {
+                fields[j] = new Field();
+            }
+        }
+        return fields[i].set(bb, s, end(i));
+    }
+
+    /**
+     * @param i The index of the field.
+     * @return The value of field i parsed as a long.
+     * @throws NumberFormatException If field i is not a long.
+     */
+    public long getLong(int i) {
+        return parseLong(bb, start(i), end(i));
+    }
+
+    /**
+     * @param i The index of the field.
+     * @return The value of field i parsed as a double.
+     * @throws NumberFormatException If field i is not a double.
+     */
+    public double getDouble(int i) {
+        return parseDouble(bb, start(i), end(i));
+    }
+
+    /**
+     * Parses a decimal long from bytes, as {@link Long#parseLong(String)}.
+     *
+     * @param b The bytes.
+     * @param from The start (inclusive).
+     * @param to The end (exclusive).
+     * @return The value.
+     * @throws NumberFormatException If the bytes are not a long.
+     */
+    public static long parseLong(ByteBuffer b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+            negative = b.get(i) == '-';
+            i++;
+        }
+        if (i == to) {
+            throw numberFormat(b, from, to);
+        }
+        // Accumulate negatively as Long.MIN_VALUE has no positive.
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multmin = limit / 10;
+        long r = 0L;
+        for (; i < to; i++) {
+            int d = b.get(i) - '0';
+            if (d < 0 || d > 9 || r < multmin) {
+                throw numberFormat(b, from, to);
+            }
+            r *= 10;
+            if (r < limit + d) {
+                throw numberFormat(b, from, to);
+            }
+            r -= d;
+        }
+        return negative ? r : -r;
+    }
+
+    /**
+     * Parses a decimal double from bytes, as
+     * {@link Double#parseDouble(String)}. Numbers with at most 15 significant
+     * digits and a decimal exponent of at most 22 in magnitude (which covers
+     * most data) are converted exactly with one multiplication or division by
+     * a power of ten (Clinger's fast path) without creating any objects.
+     * Other numbers are passed to {@link Double#parseDouble(String)}.
+     *
+     * @param b The bytes.
+     * @param from The start (inclusive).
+     * @param to The end (exclusive).
+     * @return The value.
+     * @throws NumberFormatException If the bytes are not a double.
+     */
+    public static double parseDouble(ByteBuffer b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+            negative = b.get(i) == '-';
+            i++;
+        }
+        long m = 0L;
+        int digits = 0;
+        int significant = 0;
+        int exp = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            byte c = b.get(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (m == 0L && c == '0') {
+                    // A leading zero.
+                } else if (significant < 18) {
+                    m = m * 10 + (c - '0');
+                    significant++;
+                } else {
+                    significant++;
+                    if (!point) {
+                        exp++;
+                    }
+                    continue;
+                }
+                if (point) {
+                    exp--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (digits > 0 && i < to && (b.get(i) == 'e' || b.get(i) == 'E')) {
+            i++;
+            boolean en = false;
+            if (i < to && (b.get(i) == '-' || b.get(i) == '+')) {
+                en = b.get(i) == '-';
+                i++;
+            }
+            int e = 0;
+            int start = i;
+            for (; i < to; i++) {
+                int d = b.get(i) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                if (e < 100000) {
+                    e = e * 10 + d;
+                }
+            }
+            if (i == start) {
+                return slowParseDouble(b, from, to);
+            }
+            exp += en ? -e : e;
+        }
+        if (digits == 0 || i != to || significant > 15) {
+            return slowParseDouble(b, from, to);
+        }
+        double r = m;
+        if (exp == 0 || m == 0L) {
+            // Nothing to scale.
+        } else if (exp > 0 && exp <= 22) {
+            r *= POW10[exp];
+        } else if (exp < 0 && exp >= -22) {
+            r /= POW10[-exp];
+        } else {
+            return slowParseDouble(b, from, to);
+        }
+        return negative ? -r : r;
+    }
+
+    /**
+     * @param b The bytes.
+     * @param from The start (inclusive).
+     * @param to The end (exclusive).
+     * @return {@link Double#parseDouble(String)} of the bytes.
+     */
+    private static double slowParseDouble(ByteBuffer b, int from, int to) {
+        return Double.parseDouble(toString(b, from, to,
+                StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @param b The bytes.
+     * @param from The start (inclusive).
+     * @param to The end (exclusive).
+     * @return An exception for the bytes not being a number.
+     */
+    private static NumberFormatException numberFormat(ByteBuffer b, int from,
+            int to) {
+        return new NumberFormatException("For input string: \""
+                + toString(b, from, to, StandardCharsets.ISO_8859_1) + "\"");
+    }
+
+    /**
+     * @param b The bytes.
+     * @param from The start (inclusive).
+     * @param to The end (exclusive).
+     * @param cs The charset.
+     * @return The bytes decoded.
+     */
+    private static String toString(ByteBuffer b, int from, int to,
+            Charset cs) {
+        byte[] a = new byte[to - from];
+        b.get(from, a);
+        return new String(a, cs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fc != null) {
+            fc.close();
+        }
+    }
+
+    /**
+     * A view of the bytes of a field as a {@link CharSequence} with each byte
+     * as one char.
+     */
+    public static class Field implements CharSequence {
+
+        /**
+         * The bytes.
+         */
+        private ByteBuffer b;
+
+        /**
+         * The start.
+         */
+        private int from;
+
+        /**
+         * The end (exclusive).
+         */
+        private int to;
+
+        /**
+         * Create a new instance.
+         */
+        Field() {
+        }
+
+        /**
+         * @param b The bytes.
+         * @param from The start.
+         * @param to The end (exclusive).
+         * @return this.
+         */
+        Field set(ByteBuffer b, int from, int to) {
+            this.b = b;
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int i) {
+            if (i < 0 || i >= to - from) {
+                throw new IndexOutOfBoundsException(i);
+            }
+            return (char) (b.get(from + i) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > to - from || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new Field().set(b, from + start, from + end);
+        }
+
+        /**
+         * @return The value parsed as a long.
+         * @throws NumberFormatException If this is not a long.
+         */
+        public long parseLong() {
+            return IO_RecordReader.parseLong(b, from, to);
+        }
+
+        /**
+         * @return The value parsed as a double.
+         * @throws NumberFormatException If this is not a double.
+         */
+        public double parseDouble() {
+            return IO_RecordReader.parseDouble(b, from, to);
+        }
+
+        /**
+         * @param s The characters to compare with.
+         * @return true if this has the same chars as s.
+         */
+        public boolean contentEquals(CharSequence s) {
+            if (s.length() != to - from) {
+                return false;
+            }
+            for (int i = from; i < to; i++) {
+                if ((b.get(i) & 0xff) != s.charAt(i - from)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param cs The charset.
+         * @return The bytes decoded with cs.
+         */
+        public String toString(Charset cs) {
+            return IO_RecordReader.toString(b, from, to, cs);
+        }
+
+        @Override
+        public String toString() {
+            return toString(StandardCharsets.ISO_8859_1);
+        }
+    }
+}
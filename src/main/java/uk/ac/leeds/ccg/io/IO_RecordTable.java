@@ -0,0 +1,298 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * A table of fixed size records stored in a single memory-mapped file. This is
+ * an alternative to an {@link IO_Cache} for entries that all have the same
+ * number of bytes: there are no directories or files per entry, and the entry
+ * identified by id is at offset {@code id * recordSize + base} in the file, so
+ * finding it is one multiply and one add. Identifiers start at 1 and are
+ * allocated in sequence as in {@link IO_Cache}, and the methods for adding
+ * and getting entries have the same form.
+ *
+ * The file starts with a header of {@link #HEADER} bytes which holds the
+ * record size and the number of records. Space for records is preallocated.
+ * When it is full the file is mapped again with double the capacity. Mappings
+ * are in automatic arenas, so a mapping that has been replaced stays valid for
+ * any thread still using it until it is garbage collected. This means reads
+ * never take a lock. Adds are synchronized. Records can be updated in place
+ * with {@link #set(long, ByteBuffer)} without a lock, but a read concurrent
+ * with an update of the same record may see a mixture of old and new bytes.
+ *
+ * @version 1.0
+ */
+public class IO_RecordTable implements Closeable {
+
+    /**
+     * For checking the format of the file.
+     */
+    private static final int MAGIC = 0x494f5254;
+
+    /**
+     * The number of bytes of the header.
+     */
+    public static final int HEADER = 64;
+
+    /**
+     * The offset in the header of the number of records.
+     */
+    private static final long COUNT = 16L;
+
+    /**
+     * The default initial capacity in records of a new table.
+     */
+    public static final long DEFAULT_CAPACITY = 1024L;
+
+    /**
+     * The channel for the file.
+     */
+    protected final FileChannel fc;
+
+    /**
+     * The number of bytes in each record.
+     */
+    protected final int recordSize;
+
+    /**
+     * {@code HEADER - recordSize} so that the offset of the record identified
+     * by id is {@code id * recordSize + base}.
+     */
+    protected final long base;
+
+    /**
+     * The current mapping of the file.
+     */
+    protected volatile MemorySegment segment;
+
+    /**
+     * The number of records there is space for in {@link #segment}.
+     */
+    protected volatile long capacity;
+
+    /**
+     * The number of records which is also the identifier of the last record.
+     */
+    protected volatile long count;
+
+    /**
+     * Opens the table in the file at f creating it if it does not exist.
+     *
+     * @param f The file.
+     * @param recordSize The number of bytes in each record. If the table
+     * exists this must be the same as the record size it was created with.
+     * @param capacity The initial number of records to allocate space for if
+     * the table is created.
+     * @throws IOException If encountered.
+     */
+    public IO_RecordTable(Path f, int recordSize, long capacity)
+            throws IOException {
+        if (recordSize < 1) {
+            throw new IllegalArgumentException("recordSize < 1");
+        }
+        fc = FileChannel.open(f, CREATE, READ, WRITE);
+        this.recordSize = recordSize;
+        this.base = HEADER - recordSize;
+        long size = fc.size();
+        if (size == 0L) {
+            map(Math.max(1L, capacity));
+            segment.set(ValueLayout.JAVA_INT, 0L, MAGIC);
+            segment.set(ValueLayout.JAVA_INT, 4L, recordSize);
+            segment.set(ValueLayout.JAVA_LONG, COUNT, 0L);
+        } else {
+            map(Math.max(1L, (size - HEADER) / recordSize));
+            if (segment.get(ValueLayout.JAVA_INT, 0L) != MAGIC) {
+                fc.close();
+                throw new IOException("Unrecognised format " + f);
+            }
+            int rs = segment.get(ValueLayout.JAVA_INT, 4L);
+            if (rs != recordSize) {
+                fc.close();
+                throw new IOException("The record size of " + f + " is " + rs
+                        + " not " + recordSize);
+            }
+            count = segment.get(ValueLayout.JAVA_LONG, COUNT);
+        }
+    }
+
+    /**
+     * Opens the table in the file at f creating it with
+     * {@link #DEFAULT_CAPACITY} if it does not exist.
+     *
+     * @param f The file.
+     * @param recordSize The number of bytes in each record.
+     * @throws IOException If encountered.
+     */
+    public IO_RecordTable(Path f, int recordSize) throws IOException {
+        this(f, recordSize, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Maps the file with space for capacity records.
+     *
+     * @param capacity The number of records.
+     * @throws IOException If encountered.
+     */
+    private void map(long capacity) throws IOException {
+        long size = Math.addExact(HEADER, Math.multiplyExact(capacity,
+                (long) recordSize));
+        segment = fc.map(FileChannel.MapMode.READ_WRITE, 0L, size,
+                Arena.ofAuto());
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The number of bytes in each record.
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * @return The identifier of the last record added.
+     */
+    public long getNextID() {
+        return count;
+    }
+
+    /**
+     * @return The number of records there is space for before the file is
+     * mapped again.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds a record.
+     *
+     * @param b The bytes of the record. There must be {@link #recordSize}
+     * remaining. On return the position of b is its limit.
+     * @return The identifier of the record.
+     * @throws IOException If encountered.
+     */
+    public synchronized long add(ByteBuffer b) throws IOException {
+        checkSize(b);
+        long id = count + 1L;
+        if (id > capacity) {
+            map(Math.multiplyExact(capacity, 2L));
+        }
+        MemorySegment s = segment;
+        MemorySegment.copy(MemorySegment.ofBuffer(b), 0L, s,
+                id * recordSize + base, recordSize);
+        b.position(b.limit());
+        s.set(ValueLayout.JAVA_LONG, COUNT, id);
+        count = id;
+        return id;
+    }
+
+    /**
+     * Replaces the record identified by id in place.
+     *
+     * @param id The identifier of the record.
+     * @param b The bytes of the record. There must be {@link #recordSize}
+     * remaining. On return the position of b is its limit.
+     */
+    public void set(long id, ByteBuffer b) {
+        checkSize(b);
+        MemorySegment.copy(MemorySegment.ofBuffer(b), 0L, getSegment(id), 0L,
+                recordSize);
+        b.position(b.limit());
+    }
+
+    /**
+     * Reads the record identified by id into dst.
+     *
+     * @param id The identifier of the record.
+     * @param dst The buffer to read into from its position. On return the
+     * position of dst is advanced by {@link #recordSize}.
+     * @return The number of bytes read which is {@link #recordSize}.
+     * @throws BufferOverflowException If there are fewer than
+     * {@link #recordSize} bytes remaining in dst.
+     */
+    public int get(long id, ByteBuffer dst) {
+        if (dst.remaining() < recordSize) {
+            throw new BufferOverflowException();
+        }
+        MemorySegment.copy(getSegment(id), 0L, MemorySegment.ofBuffer(dst),
+                0L, recordSize);
+        dst.position(dst.position() + recordSize);
+        return recordSize;
+    }
+
+    /**
+     * @param id The identifier of the record.
+     * @return A copy of the bytes of the record identified by id.
+     */
+    public byte[] getBytes(long id) {
+        return getSegment(id).toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    /**
+     * @param id The identifier of the record.
+     * @return A view of the record identified by id in the current mapping.
+     * This is not copied, so reads and writes through it go directly to the
+     * file.
+     */
+    public MemorySegment getSegment(long id) {
+        if (id < 1L || id > count) {
+            throw new IndexOutOfBoundsException("No record " + id);
+        }
+        return segment.asSlice(id * recordSize + base, recordSize);
+    }
+
+    /**
+     * Forces any changes to the storage device.
+     */
+    public void flush() {
+        segment.force();
+    }
+
+    /**
+     * Forces any changes to the storage device and closes the file.
+     *
+     * @throws IOException If encountered.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        fc.close();
+    }
+
+    /**
+     * @param b The buffer to check.
+     */
+    private void checkSize(ByteBuffer b) {
+        if (b.remaining() != recordSize) {
+            throw new IllegalArgumentException(b.remaining()
+                    + " bytes remaining, not " + recordSize);
+        }
+    }
+}
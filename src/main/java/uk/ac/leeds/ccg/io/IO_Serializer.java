@@ -0,0 +1,237 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * For serializing Objects using buffers that are reused by the calling thread.
+ * Each thread has its own {@link ObjectOutputStream} writing into a growable
+ * byte array. Between writes the array is rewound rather than reallocated and
+ * the handle table of the stream is reset rather than rebuilt, so in a steady
+ * state serializing produces very little garbage.
+ *
+ * The bytes produced are a complete serialization stream like that written by
+ * {@link IO_Utilities#writeObject(Object, Path)} and can be read back with
+ * {@link IO_Utilities#readObject(Path)}. Instances got from
+ * {@link IO_ClassDictionary#getSerializer()} instead write streams which
+ * reference the class descriptors in the dictionary and which must be read with
+ * an {@link IO_ClassDictionary.Input}.
+ *
+ * @version 1.0
+ */
+public final class IO_Serializer {
+
+    /**
+     * Buffers that have grown larger than this number of bytes are discarded
+     * rather than retained for reuse, so that serializing the odd large Object
+     * does not pin a large array to the thread.
+     */
+    public static final int MAX_RETAINED = 1 << 20;
+
+    /**
+     * The initial size of the buffer.
+     */
+    private static final int INITIAL_SIZE = 4096;
+
+    /**
+     * The instance for each thread.
+     */
+    private static final ThreadLocal<IO_Serializer> LOCAL
+            = ThreadLocal.withInitial(IO_Serializer::new);
+
+    /**
+     * The buffer written to by {@link #oos}.
+     */
+    private Buffer b;
+
+    /**
+     * For writing into {@link #b}. The stream header is written once at the
+     * start of {@link #b} when this is constructed and is kept there.
+     */
+    private ObjectOutputStream oos;
+
+    /**
+     * The length of the stream header at the start of {@link #b}.
+     */
+    private int headerLength;
+
+    /**
+     * A view of {@link #b} returned from {@link #serialize(Object)}.
+     */
+    private ByteBuffer bb;
+
+    /**
+     * The dictionary of class descriptors used, otherwise null.
+     */
+    private final IO_ClassDictionary dictionary;
+
+    /**
+     * Create a new instance. Use {@link #get()} to get the instance for the
+     * calling thread.
+     */
+    private IO_Serializer() {
+        this(null);
+    }
+
+    /**
+     * Create a new instance which writes streams using dictionary. Use
+     * {@link IO_ClassDictionary#getSerializer()} to get the instance for the
+     * calling thread.
+     *
+     * @param dictionary The dictionary of class descriptors or null to write
+     * standard serialization streams.
+     */
+    IO_Serializer(IO_ClassDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return The instance for the calling thread.
+     */
+    public static IO_Serializer get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Serializes {@code o} into the buffer of this instance.
+     *
+     * @param o The Object to serialize.
+     * @return A view of the serialized bytes from position 0 up to the limit.
+     * The view is only valid until the next call on this instance, so the
+     * bytes must be consumed or copied before then.
+     * @throws IOException If encountered.
+     */
+    public ByteBuffer serialize(Object o) throws IOException {
+        if (oos == null || b.buf.length > MAX_RETAINED) {
+            init();
+        }
+        b.count = headerLength;
+        int n;
+        try {
+            oos.writeUnshared(o);
+            oos.flush();
+            n = b.count;
+            /**
+             * Clear the handle table so that the next Object gets its own class
+             * descriptors. The reset marker this writes is flushed beyond n and
+             * is overwritten by the next Object.
+             */
+            oos.reset();
+            oos.flush();
+        } catch (IOException | RuntimeException e) {
+            // The state of the stream is unknown, so start again next time.
+            oos = null;
+            throw e;
+        }
+        if (bb == null || bb.array() != b.buf) {
+            bb = ByteBuffer.wrap(b.buf);
+        }
+        bb.limit(n).position(0);
+        return bb;
+    }
+
+    /**
+     * Serializes {@code o} and writes it to a file at {@code f} with a single
+     * {@link FileChannel#write(ByteBuffer)} (repeated only if the channel
+     * writes fewer bytes than requested). Any existing file at {@code f} is
+     * truncated. As with {@link IO_Utilities#writeObject(Object, Path)} the
+     * parent directory of {@code f} must already exist.
+     *
+     * @param o The Object to write.
+     * @param f The file to write to.
+     * @return The number of bytes written.
+     * @throws IOException If encountered.
+     */
+    public int write(Object o, Path f) throws IOException {
+        ByteBuffer buf = serialize(o);
+        int n = buf.remaining();
+        try (FileChannel fc = FileChannel.open(f, CREATE, WRITE,
+                TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                fc.write(buf);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Initialises {@link #b} and {@link #oos}.
+     *
+     * @throws IOException If encountered.
+     */
+    private void init() throws IOException {
+        b = new Buffer();
+        bb = null;
+        if (dictionary == null) {
+            oos = new ObjectOutputStream(b);
+        } else {
+            oos = new IO_ClassDictionary.Output(b, dictionary);
+        }
+        oos.flush();
+        headerLength = b.count;
+    }
+
+    /**
+     * A growable byte array output stream that exposes its array. Unlike
+     * {@link java.io.ByteArrayOutputStream} it is not synchronized as it is
+     * only ever used by one thread.
+     */
+    private static final class Buffer extends OutputStream {
+
+        /**
+         * The bytes.
+         */
+        byte[] buf = new byte[INITIAL_SIZE];
+
+        /**
+         * The number of bytes written to {@link #buf}.
+         */
+        int count;
+
+        @Override
+        public void write(int i) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) i;
+        }
+
+        @Override
+        public void write(byte[] a, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(a, off, buf, count, len);
+            count += len;
+        }
+
+        /**
+         * @param n The capacity required.
+         */
+        private void ensureCapacity(int n) {
+            if (n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(n, buf.length << 1));
+            }
+        }
+    }
+}
@@ -23,7 +23,7 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.READ;
 //import static java.nio.file.StandardOpenOption.SPARSE;
 //import static java.nio.file.StandardOpenOption.SYNC;
-//import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 import java.io.BufferedInputStream;
@@ -37,19 +37,41 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Contains convenient methods for primarily helping to read from and write to a
@@ -57,6 +79,18 @@ import java.util.stream.Stream;
  */
 public class IO_Utilities {
 
+    /**
+     * The default number of bytes copied at a time by
+     * {@link #copyFile(Path, Path, String, int, long, LongConsumer)}.
+     */
+    public static final long COPY_CHUNK_SIZE = 1L << 26;
+
+    /**
+     * The maximum number of exceptions added as suppressed to an exception
+     * thrown after a bulk operation.
+     */
+    public static final int MAX_SUPPRESSED = 100;
+
     /**
      * Create a new instance.
      */
@@ -83,6 +117,41 @@ public class IO_Utilities {
         }
     }
 
+    /**
+     * A lazy alternative to {@link #getFiles(Path)} for large trees. The
+     * files are listed as the stream is consumed, so processing can start on
+     * the first files straight away and the memory used does not depend on the
+     * number of files. A parallel stream lists subdirectories in parallel. The
+     * stream should be closed, e.g. with try-with-resources. Symbolic links
+     * are not followed and are included as files. See
+     * {@link IO_FileSpliterator}.
+     *
+     * @param dir The directory.
+     * @return A stream of the paths of all files in dir and any
+     * subdirectories.
+     * @throws IOException If dir is not a directory.
+     */
+    public static Stream<Path> streamFiles(Path dir) throws IOException {
+        return streamFiles(dir, (p, a) -> true);
+    }
+
+    /**
+     * As {@link #streamFiles(Path)} but only including files for which filter
+     * is true. The filter is given the attributes already read for each file,
+     * so selecting by size, time or type costs no further I/O.
+     *
+     * @param dir The directory.
+     * @param filter Which files to include.
+     * @return A stream of the paths of the files in dir and any subdirectories
+     * for which filter is true.
+     * @throws IOException If dir is not a directory.
+     */
+    public static Stream<Path> streamFiles(Path dir,
+            BiPredicate<Path, BasicFileAttributes> filter) throws IOException {
+        IO_FileSpliterator s = new IO_FileSpliterator(dir, filter);
+        return StreamSupport.stream(s, false).onClose(s::close);
+    }
+
     /**
      * Recursively traverses a directory creating a set of File paths of files
      * (i.e. not directories).
@@ -128,6 +197,73 @@ public class IO_Utilities {
         }
     }
 
+    /**
+     * Writes Object o to a file at f using the serialization buffers of the
+     * calling thread (see {@link IO_Serializer}) and a single
+     * {@link java.nio.channels.FileChannel} write. This produces much less
+     * garbage than {@link #writeObject(Object, Path)} when called repeatedly,
+     * and what is written can be read with {@link #readObject(Path)}. Any
+     * existing file at f is truncated.
+     *
+     * @param o Object to be written.
+     * @param f File to write to.
+     * @return The number of bytes written.
+     * @throws IOException If encountered.
+     */
+    public static long writeObjectPooled(Object o, Path f) throws IOException {
+        return IO_Serializer.get().write(o, f);
+    }
+
+    /**
+     * Writes the remaining bytes of b as they are to a file at f. Any existing
+     * file at f is truncated. On return the position of b is its limit.
+     *
+     * @param b The bytes to write.
+     * @param f File to write to.
+     * @return The number of bytes written.
+     * @throws IOException If encountered.
+     */
+    public static long writeBytes(ByteBuffer b, Path f) throws IOException {
+        long n = b.remaining();
+        try (FileChannel fc = FileChannel.open(f, CREATE, WRITE,
+                TRUNCATE_EXISTING)) {
+            while (b.hasRemaining()) {
+                fc.write(b);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Reads all the bytes of the file at f into dst starting at the position
+     * of dst. On return the position of dst is advanced by the number of bytes
+     * read.
+     *
+     * @param f File to read from.
+     * @param dst The buffer to read into.
+     * @return The number of bytes read.
+     * @throws IOException If encountered.
+     * @throws BufferOverflowException If the file is bigger than the number of
+     * bytes remaining in dst. In this case nothing is read.
+     */
+    public static int readBytes(Path f, ByteBuffer dst) throws IOException {
+        try (FileChannel fc = FileChannel.open(f, READ)) {
+            long size = fc.size();
+            if (size > dst.remaining()) {
+                throw new BufferOverflowException();
+            }
+            int n = 0;
+            while (n < size) {
+                int r = fc.read(dst);
+                if (r < 0) {
+                    break;
+                }
+                n += r;
+            }
+            return n;
+        }
+    }
+
     /**
      * Read an Object and check the Type.
      *
@@ -166,6 +302,46 @@ public class IO_Utilities {
         }
     }
 
+    /**
+     * Writes the Objects from it to a single container file at f, replacing
+     * any existing file. See {@link IO_RecordContainer}.
+     *
+     * @param it The Objects to write.
+     * @param f The Path of the file to write to.
+     * @return The number of Objects written.
+     * @throws java.io.IOException If encountered.
+     */
+    public static long writeObjects(Iterator<?> it, Path f)
+            throws IOException {
+        return IO_RecordContainer.write(it, f);
+    }
+
+    /**
+     * Writes the Objects from s to a single container file at f, replacing
+     * any existing file. See {@link IO_RecordContainer}.
+     *
+     * @param s The Objects to write.
+     * @param f The Path of the file to write to.
+     * @return The number of Objects written.
+     * @throws java.io.IOException If encountered.
+     */
+    public static long writeObjects(Stream<?> s, Path f) throws IOException {
+        return IO_RecordContainer.write(s.iterator(), f);
+    }
+
+    /**
+     * Reads the Objects in a container file at f written by
+     * {@link #writeObjects(Iterator, Path)}.
+     *
+     * @param f The Path of the file to read.
+     * @return A lazy stream of the Objects which should be closed to close the
+     * file.
+     * @throws java.io.IOException If encountered.
+     */
+    public static Stream<Object> readObjects(Path f) throws IOException {
+        return new IO_RecordContainer(f).stream();
+    }
+
     /**
      * Writes Object o to a file at p and logs the name of the Object written
      * and the path.
@@ -193,10 +369,8 @@ public class IO_Utilities {
 
     /**
      * Copies a file from f to d renaming it to fn in the process. If there is
-     * no directory at d then this is created.
-     *
-     * This might be improved using Files.copy(f, target, REPLACE_EXISTING) and
-     * similar...
+     * no directory at d then this is created. Any existing file at d/fn is
+     * overwritten.
      *
      * @param f A Path of a file to be copied.
      * @param d The Path of a directory to copy to.
@@ -205,6 +379,42 @@ public class IO_Utilities {
      */
     public static void copyFile(Path f, Path d,
             String fn) throws IOException {
+        copyFile(f, d, fn, 1, COPY_CHUNK_SIZE, null);
+    }
+
+    /**
+     * Copies a file from f to d renaming it to fn in the process. If there is
+     * no directory at d then this is created. Any existing file at d/fn is
+     * overwritten.
+     *
+     * The bytes are copied with {@link FileChannel#transferFrom} so that where
+     * the operating system supports it they are copied in the kernel without
+     * passing through the Java heap. Files larger than chunkSize are copied by
+     * up to {@code parallelism} threads, each copying ranges of chunkSize
+     * bytes with positional writes, which can be faster on devices that serve
+     * several requests at once (e.g. SSDs and network file systems).
+     *
+     * @param f A Path of a file to be copied.
+     * @param d The Path of a directory to copy to.
+     * @param fn The name for the file that will be created in d.
+     * @param parallelism The maximum number of threads to copy with.
+     * @param chunkSize The number of bytes copied at a time, e.g.
+     * {@link #COPY_CHUNK_SIZE}.
+     * @param progress If not null, this is given the number of bytes copied so
+     * far each time a chunk is copied. If parallelism is greater than 1 it may
+     * be called from several threads at once.
+     * @throws java.io.IOException If encountered.
+     * @throws IllegalArgumentException If parallelism or chunkSize is less than
+     * 1.
+     */
+    public static void copyFile(Path f, Path d, String fn, int parallelism,
+            long chunkSize, LongConsumer progress) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism < 1");
+        }
+        if (chunkSize < 1L) {
+            throw new IllegalArgumentException("chunkSize < 1");
+        }
         if (!Files.exists(f)) {
             throw new IOException("Path " + f + " is not to a file.");
         }
@@ -212,28 +422,94 @@ public class IO_Utilities {
             Files.createDirectories(d);
         }
         Path p = Paths.get(d.toString(), fn);
-        if (!Files.exists(p)) {
-            Files.createFile(p);
-        }
-        try ( BufferedInputStream bis = getBufferedInputStream(f);  BufferedOutputStream bos = getBufferedOutputStream(p)) {
-            /**
-             * bufferSize should be power of 2 (e.g. Math.pow(2, 12)), but
-             * nothing too big.
-             */
-            int bufferSize = 2048;
-            long length = Files.size(f);
-            long nArrayReads = length / bufferSize;
-            long nSingleReads = length - (nArrayReads * bufferSize);
-            byte[] b = new byte[bufferSize];
-            for (int i = 0; i < nArrayReads; i++) {
-                bis.read(b);
-                bos.write(b);
+        try (FileChannel src = FileChannel.open(f, READ);
+                FileChannel dst = FileChannel.open(p, CREATE, WRITE,
+                        TRUNCATE_EXISTING)) {
+            long size = src.size();
+            long n = (size + chunkSize - 1) / chunkSize;
+            if (parallelism < 2 || n < 2) {
+                long pos = 0L;
+                while (pos < size) {
+                    pos += copyRange(src, dst, pos,
+                            Math.min(chunkSize, size - pos));
+                    if (progress != null) {
+                        progress.accept(pos);
+                    }
+                }
+            } else {
+                copyParallel(f, dst, size, chunkSize, parallelism, progress);
             }
-            for (int i = 0; i < nSingleReads; i++) {
-                bos.write(bis.read());
+        }
+    }
+
+    /**
+     * Copies n bytes from src starting at pos to the same position in dst.
+     *
+     * @param src The channel to copy from. Its position is changed.
+     * @param dst The channel to copy to. Its position is not changed.
+     * @param pos The position.
+     * @param n The number of bytes.
+     * @return n.
+     * @throws IOException If encountered or if src ends before pos + n.
+     */
+    private static long copyRange(FileChannel src, FileChannel dst, long pos,
+            long n) throws IOException {
+        src.position(pos);
+        long done = 0L;
+        while (done < n) {
+            long t = dst.transferFrom(src, pos + done, n - done);
+            if (t <= 0L) {
+                throw new IOException("Unexpected end of file copying "
+                        + "bytes from " + (pos + done));
+            }
+            done += t;
+        }
+        return n;
+    }
+
+    /**
+     * Copies the file at f to dst in chunks using parallelism virtual threads,
+     * each with its own channel for reading f.
+     *
+     * @param f The file to copy.
+     * @param dst The channel to copy to.
+     * @param size The number of bytes to copy.
+     * @param chunkSize The number of bytes in each chunk.
+     * @param parallelism The number of threads.
+     * @param progress For reporting progress or null.
+     * @throws IOException If encountered.
+     */
+    private static void copyParallel(Path f, FileChannel dst, long size,
+            long chunkSize, int parallelism, LongConsumer progress)
+            throws IOException {
+        long n = (size + chunkSize - 1) / chunkSize;
+        AtomicLong next = new AtomicLong();
+        AtomicLong copied = new AtomicLong();
+        List<IOException> errors = Collections.synchronizedList(
+                new ArrayList<>());
+        int threads = (int) Math.min(parallelism, n);
+        try (ExecutorService es = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < threads; i++) {
+                es.execute(() -> {
+                    try (FileChannel src = FileChannel.open(f, READ)) {
+                        long c;
+                        while (errors.isEmpty()
+                                && (c = next.getAndIncrement()) < n) {
+                            long pos = c * chunkSize;
+                            long t = copyRange(src, dst, pos,
+                                    Math.min(chunkSize, size - pos));
+                            long total = copied.addAndGet(t);
+                            if (progress != null) {
+                                progress.accept(total);
+                            }
+                        }
+                    } catch (IOException e) {
+                        errors.add(e);
+                    }
+                });
             }
-            bos.flush();
         }
+        rethrow(errors);
     }
 
     /**
@@ -299,46 +575,22 @@ public class IO_Utilities {
     }
 
     /**
-     * A class for recursively copying a directory.
+     * Copies the contents of dirToCopy into dirToCopyTo with
+     * {@link IO_DirectoryCopy} using a thread for each available processor.
+     * Failures are printed to {@link System#err}.
+     *
+     * @param dirToCopy The directory to copy.
+     * @param dirToCopyTo The directory to copy to.
+     * @throws IOException If dirToCopy is not a directory.
      */
-    private static class CopyDir extends SimpleFileVisitor<Path> {
-
-        private final Path sourceDir;
-        private final Path targetDir;
-
-        public CopyDir(Path sourceDir, Path targetDir) {
-            this.sourceDir = sourceDir;
-            this.targetDir = targetDir;
-        }
-
-        @Override
-        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
-            try {
-                Path targetFile = targetDir.resolve(sourceDir.relativize(file));
-                Files.copy(file, targetFile);
-            } catch (IOException ex) {
-                System.err.println(ex);
-            }
-            return FileVisitResult.CONTINUE;
-        }
-
-        @Override
-        public FileVisitResult preVisitDirectory(Path dir,
-                BasicFileAttributes attributes) {
-            try {
-                Path newDir = targetDir.resolve(sourceDir.relativize(dir));
-                Files.createDirectory(newDir);
-            } catch (IOException ex) {
-                System.err.println(ex);
-            }
-            return FileVisitResult.CONTINUE;
-        }
-
-    }
-
     private static void copyDirectory(Path dirToCopy, Path dirToCopyTo)
             throws IOException {
-        Files.walkFileTree(dirToCopy, new CopyDir(dirToCopy, dirToCopyTo));
+        IO_DirectoryCopy.Result r = new IO_DirectoryCopy(
+                Runtime.getRuntime().availableProcessors(), false)
+                .copy(dirToCopy, dirToCopyTo);
+        for (IO_DirectoryCopy.Failure f : r.getFailures()) {
+            System.err.println(f.exception());
+        }
     }
 
     /**
@@ -361,7 +613,9 @@ public class IO_Utilities {
     }
 
     /**
-     * Delete all files and directories in a directory.
+     * Delete all files and directories in a directory and the directory
+     * itself. See {@link #deleteTree(Path, int, boolean)}. Any files or
+     * directories that cannot be deleted are reported to {@link System#err}.
      *
      * @param d The directory containing everything to delete.
      * @param log If true then deletions are logged.
@@ -369,21 +623,209 @@ public class IO_Utilities {
      * thrown if d does not denote a path to an existing directory.
      */
     public static void delete(Path d, boolean log) throws IOException {
-        if (log) {
-            try ( Stream<Path> walk = Files.walk(d)) {
-                walk.sorted(Comparator.reverseOrder())
-                        .peek(System.out::println) // Log deletions to std.out.
-                        .forEach(p -> {
-                            delete(p);
-                        });
-            }
+        if (!Files.exists(d, LinkOption.NOFOLLOW_LINKS)) {
+            throw new NoSuchFileException(d.toString());
+        }
+        try {
+            deleteTree(d, 1, log);
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+    }
+
+    /**
+     * Deletes d and, if it is a directory, everything in it. The tree is
+     * deleted in post-order as it is traversed, so the memory used depends on
+     * the depth of the tree and the number of subdirectories in a directory
+     * and not on the number of files. With a parallelism greater than 1,
+     * subdirectories are deleted in parallel by fork-join tasks. Symbolic
+     * links are deleted and not followed.
+     *
+     * Deletion continues after a failure. The first failure is thrown at the
+     * end with up to {@link #MAX_SUPPRESSED} others added as suppressed.
+     *
+     * @param d The path to delete.
+     * @param parallelism The number of threads to delete with.
+     * @param log If true then each path is printed to {@link System#out} once
+     * it is deleted.
+     * @return The number of files and directories deleted.
+     * @throws IOException If encountered.
+     */
+    public static long deleteTree(Path d, int parallelism, boolean log)
+            throws IOException {
+        LongAdder n = new LongAdder();
+        List<IOException> errors = Collections.synchronizedList(
+                new ArrayList<>());
+        if (parallelism < 2) {
+            Files.walkFileTree(d, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path f,
+                        BasicFileAttributes a) {
+                    deletePath(f, log, n, errors);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path f, IOException e) {
+                    errors.add(e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir,
+                        IOException e) {
+                    if (e != null) {
+                        errors.add(e);
+                    }
+                    deletePath(dir, log, n, errors);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
         } else {
-            try ( Stream<Path> walk = Files.walk(d)) {
-                walk.sorted(Comparator.reverseOrder())
-                        .forEach(p -> {
-                            delete(p);
-                        });
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new DeleteTask(d, log, n, errors));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        rethrow(errors);
+        return n.sum();
+    }
+
+    /**
+     * Deletes p recording it in n or any exception in errors.
+     *
+     * @param p The path to delete.
+     * @param log If true then p is printed to {@link System#out} once deleted.
+     * @param n The number of paths deleted.
+     * @param errors Exceptions encountered.
+     */
+    private static void deletePath(Path p, boolean log, LongAdder n,
+            List<IOException> errors) {
+        try {
+            Files.delete(p);
+            n.increment();
+            if (log) {
+                System.out.println(p);
+            }
+        } catch (IOException e) {
+            errors.add(e);
+        }
+    }
+
+    /**
+     * Deletes a directory tree, forking a task for each subdirectory.
+     */
+    private static class DeleteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The path to delete.
+         */
+        final transient Path p;
+
+        /**
+         * If true then deletions are logged.
+         */
+        final boolean log;
+
+        /**
+         * The number of paths deleted.
+         */
+        final transient LongAdder n;
+
+        /**
+         * Exceptions encountered.
+         */
+        final transient List<IOException> errors;
+
+        /**
+         * @param p The path to delete.
+         * @param log If true then deletions are logged.
+         * @param n The number of paths deleted.
+         * @param errors Exceptions encountered.
+         */
+        DeleteTask(Path p, boolean log, LongAdder n, List<IOException> errors) {
+            this.p = p;
+            this.log = log;
+            this.n = n;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                List<DeleteTask> tasks = new ArrayList<>();
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(p)) {
+                    for (Path c : ds) {
+                        if (Files.isDirectory(c, LinkOption.NOFOLLOW_LINKS)) {
+                            DeleteTask t = new DeleteTask(c, log, n, errors);
+                            t.fork();
+                            tasks.add(t);
+                        } else {
+                            deletePath(c, log, n, errors);
+                        }
+                    }
+                } catch (IOException e) {
+                    errors.add(e);
+                }
+                for (DeleteTask t : tasks) {
+                    t.join();
+                }
             }
+            deletePath(p, log, n, errors);
+        }
+    }
+
+    /**
+     * Moves d into trash and then deletes it on a background daemon thread
+     * with {@link #deleteTree(Path, int, boolean)}. The move is a rename, so
+     * trash must be on the same file store as d, and this returns as soon as
+     * it is done. If the JVM exits before the delete completes, what is left
+     * is in trash and can be deleted later.
+     *
+     * @param d The path to delete.
+     * @param trash The directory to move d into. It is created if needed.
+     * @param parallelism The number of threads to delete with.
+     * @return A future completed with the number of files and directories
+     * deleted, or exceptionally with the first failure.
+     * @throws IOException If d could not be moved.
+     */
+    public static CompletableFuture<Long> deleteInBackground(Path d,
+            Path trash, int parallelism) throws IOException {
+        Files.createDirectories(trash);
+        Path t = Files.createTempDirectory(trash, d.getFileName().toString());
+        Files.move(d, t.resolve(d.getFileName().toString()),
+                StandardCopyOption.ATOMIC_MOVE);
+        CompletableFuture<Long> r = new CompletableFuture<>();
+        Thread.ofPlatform().daemon().name("IO_Utilities delete " + t)
+                .start(() -> {
+                    try {
+                        r.complete(deleteTree(t, parallelism, false));
+                    } catch (IOException | RuntimeException e) {
+                        r.completeExceptionally(e);
+                    }
+                });
+        return r;
+    }
+
+    /**
+     * Throws the first of errors, if there are any, with up to
+     * {@link #MAX_SUPPRESSED} others added as suppressed.
+     *
+     * @param errors Exceptions encountered.
+     * @throws IOException The first of errors.
+     */
+    private static void rethrow(List<IOException> errors) throws IOException {
+        if (!errors.isEmpty()) {
+            IOException e = errors.get(0);
+            int n = Math.min(errors.size(), MAX_SUPPRESSED + 1);
+            for (int i = 1; i < n; i++) {
+                e.addSuppressed(errors.get(i));
+            }
+            throw e;
         }
     }
 
@@ -442,7 +884,73 @@ public class IO_Utilities {
     }
 
     /**
-     * Write {@code s} to a file at {@code p}.
+     * For processing the lines of a large text file on many threads. The
+     * returned stream is sequential; calling {@link Stream#parallel()} on it
+     * splits the file into ranges of bytes at line boundaries which are read
+     * by different threads. See {@link IO_LineSpliterator}.
+     *
+     * @param f The Path of the file.
+     * @param cs The charset, such as UTF-8, in which a newline is a single
+     * byte that is not part of any other character.
+     * @return A stream of the lines of f which should be closed to close the
+     * file.
+     * @throws IOException If encountered.
+     */
+    public static Stream<String> lines(Path f, Charset cs) throws IOException {
+        FileChannel fc = FileChannel.open(f, READ);
+        try {
+            return StreamSupport.stream(new IO_LineSpliterator(fc, cs, 0L,
+                    fc.size()), false).onClose(() -> {
+                        try {
+                            fc.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException | RuntimeException e) {
+            fc.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Passes each line of a text file to action using up to parallelism
+     * threads. Lines are passed in no particular order. See
+     * {@link #lines(Path, Charset)}.
+     *
+     * @param f The Path of the file.
+     * @param cs The charset, such as UTF-8, in which a newline is a single
+     * byte that is not part of any other character.
+     * @param parallelism The number of threads.
+     * @param action The action, which must be safe to call from many threads.
+     * @throws IOException If encountered.
+     */
+    public static void forEachLine(Path f, Charset cs, int parallelism,
+            Consumer<String> action) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (Stream<String> s = lines(f, cs)) {
+            pool.submit(() -> s.parallel().forEach(action)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof UncheckedIOException u) {
+                throw u.getCause();
+            } else if (c instanceof RuntimeException r) {
+                throw r;
+            } else if (c instanceof Error r) {
+                throw r;
+            }
+            throw new IOException(c);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Write {@code s} to a file at {@code p}. This opens and closes the file
+     * each time, so for appending many records use an {@link IO_Appender}.
      *
      * @param p The path to the file to write to.
      * @param s The String to write.
@@ -519,8 +1027,8 @@ public class IO_Utilities {
      * @return The file of a newly created file in dir. The name of the file
      * will begin with prefix and end with suffix. If a file already exists with
      * a name which is just the prefix appended to the suffix, then a number is
-     * inserted between these two parts of the filename. The first number tried
-     * is 0, the number then increases by 1 each try.
+     * inserted between these two parts of the filename. See
+     * {@link #allocateNewFile(Path, String, String)}.
      * @throws java.io.IOException If dir exists and is not a directory.
      */
     public static Path createNewFile(Path dir, String prefix, String suffix)
@@ -541,54 +1049,92 @@ public class IO_Utilities {
             if (suffix == null) {
                 suffix = "";
             }
-            do {
-                r = getNewFile(dir, prefix, suffix);
-            } while (!Files.exists(Files.createFile(r)));
+            r = allocateNewFile(dir, prefix, suffix);
         } catch (IOException ioe0) {
             String methodName = IO_Utilities.class.getName()
                     + ".createNewFile(Path,String,String)";
-            if (r != null) {
-                System.err.println("Path " + r.toString() + " in " + methodName);
-            } else {
-                System.err.println("Path null in " + methodName);
-            }
+            System.err.println("Path " + dir.toString() + " in " + methodName);
             ioe0.printStackTrace(System.err);
         }
         return r;
     }
 
     /**
-     * This attempts to return a Path to a new file in the directory
-     * {@code dir}. The file will have a name starting {@code prefix} and ending
-     * {@code suffix}. If such a file already exists then a number n is inserted
-     * between the {@code prefix} and {@code suffix}, where n is a positive
-     * long. Firstly n = 0 is tried and if this file already exists then n = 1
-     * is tried and so on until a unique file is returned.
+     * Creates a new empty file in the existing directory {@code dir} with a
+     * name starting {@code prefix} and ending {@code suffix}. If prefix and
+     * suffix are not both empty then the name {@code prefix + suffix} is tried
+     * first. Otherwise a number n is inserted between prefix and suffix.
+     *
+     * The n to try is found with a galloping search followed by a binary
+     * search, which takes O(log n) checks for existing files numbered from 0.
+     * If the numbered files have gaps (because some were deleted), the number
+     * found may be above the lowest free one. Files are created with
+     * {@link Files#createFile} which fails rather than replacing an existing
+     * file, so this is safe to call from many threads and processes at once.
+     * Nothing is remembered between calls. To create many files in a directory
+     * at O(1) cost per file use an {@link IO_FileAllocator}.
      *
-     * @param dir The directory in which to return the File.
+     * @param dir The directory in which to create the file.
      * @param prefix The first part of the filename.
      * @param suffix The last part of the filename.
-     * @return A File for a file which is thought not to exist.
-     */
-    private static Path getNewFile(Path dir, String prefix, String suffix) {
-        Path r;
-        if (prefix.isEmpty() && suffix.isEmpty()) {
-            long n = 0;
-            do {
-                r = Paths.get(dir.toString(), "" + n);
-                n++;
-            } while (Files.exists(r));
-        } else {
-            r = Paths.get(dir.toString(), prefix + suffix);
-            if (Files.exists(r)) {
-                long n = 0;
-                do {
-                    r = Paths.get(dir.toString(), prefix + n + suffix);
-                    n++;
-                } while (Files.exists(r));
+     * @return The path of the file created.
+     * @throws IOException If encountered.
+     */
+    public static Path allocateNewFile(Path dir, String prefix, String suffix)
+            throws IOException {
+        if (!(prefix.isEmpty() && suffix.isEmpty())) {
+            try {
+                return Files.createFile(dir.resolve(prefix + suffix));
+            } catch (FileAlreadyExistsException e) {
+                // Try numbered names.
             }
         }
-        return r;
+        long n = getFirstFree(dir, prefix, suffix, 0L);
+        while (true) {
+            try {
+                return Files.createFile(dir.resolve(prefix + n + suffix));
+            } catch (FileAlreadyExistsException e) {
+                n = getFirstFree(dir, prefix, suffix, n + 1);
+            }
+        }
+    }
+
+    /**
+     * Finds a number n not less than {@code from} for which there is no file
+     * named {@code prefix + n + suffix} in dir. Numbers from {@code from} are
+     * probed at increasing gaps (1, 2, 4, ...) until one is free and then the
+     * last gap is binary searched, so if the files are numbered contiguously
+     * from {@code from} this returns the first free number after O(log n)
+     * checks.
+     *
+     * @param dir The directory.
+     * @param prefix The first part of the filename.
+     * @param suffix The last part of the filename.
+     * @param from The number to start from.
+     * @return A number for which there is no file.
+     */
+    static long getFirstFree(Path dir, String prefix, String suffix,
+            long from) {
+        if (!Files.exists(dir.resolve(prefix + from + suffix))) {
+            return from;
+        }
+        long lo = from;
+        long step = 1L;
+        long hi = from + 1L;
+        while (Files.exists(dir.resolve(prefix + hi + suffix))) {
+            lo = hi;
+            step <<= 1;
+            hi = lo + step;
+        }
+        while (hi - lo > 1L) {
+            long mid = (lo + hi) >>> 1;
+            if (Files.exists(dir.resolve(prefix + mid + suffix))) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return hi;
     }
 
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_Appender} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_AppenderTest {
+
+    public IO_AppenderTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of append and close methods, of class IO_Appender.
+     */
+    @Test
+    public void testAppend() throws Exception {
+        System.out.println("append");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testAppender.txt");
+        Files.deleteIfExists(f);
+        Files.writeString(f, "first\n");
+        IO_Appender a = new IO_Appender(f, StandardCharsets.UTF_8, 256, 5L);
+        Thread[] ts = new Thread[8];
+        for (int t = 0; t < ts.length; t++) {
+            int tt = t;
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    try {
+                        a.appendLine(tt + " " + i + " é");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        a.append("x".repeat(1000));
+        a.flush();
+        a.appendLine("");
+        a.close();
+        a.close();
+        Assertions.assertThrows(IOException.class, () -> a.append("late"));
+        List<String> l = Files.readAllLines(f, StandardCharsets.UTF_8);
+        Assertions.assertEquals(8002, l.size());
+        Assertions.assertEquals("first", l.get(0));
+        Assertions.assertEquals("x".repeat(1000), l.get(8001));
+        int[] next = new int[ts.length];
+        for (int i = 1; i < 8001; i++) {
+            String[] s = l.get(i).split(" ");
+            int t = Integer.parseInt(s[0]);
+            Assertions.assertEquals(next[t]++, Integer.parseInt(s[1]));
+            Assertions.assertEquals("é", s[2]);
+        }
+        Files.delete(f);
+    }
+}
@@ -16,10 +16,24 @@
 package uk.ac.leeds.ccg.io;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
@@ -112,6 +126,669 @@ public class IO_CacheTest {
         IO_Utilities.delete(p, true);
     }
 
+    /**
+     * Test of add and get methods for Objects and raw bytes, of class
+     * IO_Cache.
+     */
+    @Test
+    public void testAddGet() throws Exception {
+        System.out.println("addGet");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testAddGet";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        for (int i = 0; i < 25; i++) {
+            a.add("Entry " + i);
+        }
+        for (long id = 1; id <= 25; id++) {
+            Assertions.assertEquals("Entry " + (id - 1), a.get(id));
+        }
+        byte[] b = new byte[]{1, 2, 3, 4, 5};
+        long id = a.add(ByteBuffer.wrap(b));
+        Assertions.assertEquals(26L, id);
+        Assertions.assertArrayEquals(b, a.getBytes(id));
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        Assertions.assertEquals(b.length, a.get(id, dst));
+        Assertions.assertEquals(b.length, dst.position());
+        Assertions.assertThrows(BufferOverflowException.class,
+                () -> a.get(id, ByteBuffer.allocate(2)));
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of subscribe methods, of class IO_Cache.
+     */
+    @Test
+    public void testSubscribe() throws Exception {
+        System.out.println("subscribe");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testSubscribe";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        a.enableChangeLog();
+        a.add("a");
+        a.add("b");
+        // In-process.
+        List<Long> ids = new ArrayList<>();
+        IO_CacheTail t = a.subscribe(2L, ids::add);
+        a.add("c");
+        t.close();
+        a.add("d");
+        Assertions.assertEquals(List.of(2L, 3L), ids);
+        // Via the change log.
+        CountDownLatch latch = new CountDownLatch(3);
+        List<Long> ids2 = new CopyOnWriteArrayList<>();
+        try (IO_CacheTail t2 = IO_Cache.subscribe(p2, 3L, id -> {
+            ids2.add(id);
+            latch.countDown();
+        })) {
+            a.add("e");
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(List.of(3L, 4L, 5L), ids2);
+        // Subscribing while entries are added concurrently passes each
+        // identifier once.
+        List<Long> ids3 = new CopyOnWriteArrayList<>();
+        Thread w = new Thread(() -> {
+            try {
+                for (int i = 0; i < 100; i++) {
+                    a.add(i);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        w.start();
+        try (IO_CacheTail t3 = a.subscribe(6L, ids3::add)) {
+            w.join();
+        }
+        Assertions.assertEquals(100, ids3.size());
+        Assertions.assertEquals(100L, ids3.stream().distinct().count());
+        // A consumer that throws closes its subscription, not the adder.
+        IO_CacheTail t4 = a.subscribe(106L, id -> {
+            throw new IllegalStateException("" + id);
+        });
+        a.add("f");
+        Assertions.assertTrue(t4.isClosed());
+        Assertions.assertTrue(
+                t4.getFailure() instanceof IllegalStateException);
+        try (IO_CacheTail t5 = IO_Cache.subscribe(p2, 1L, id -> {
+            throw new IllegalStateException("" + id);
+        })) {
+            for (int i = 0; i < 1000 && !t5.isClosed(); i++) {
+                Thread.sleep(10L);
+            }
+            Assertions.assertTrue(t5.isClosed());
+            Assertions.assertNotNull(t5.getFailure());
+        }
+        a.close();
+        // Reopening finds the cache despite the meta directory.
+        IO_Cache b = new IO_Cache(p2);
+        Assertions.assertEquals(106L, b.getNextID());
+        b.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of multi-writer mode, of class IO_Cache.
+     */
+    @Test
+    public void testMultiWriter() throws Exception {
+        System.out.println("multiWriter");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testMultiWriter";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        a.enableMultiWriter(10L);
+        for (int i = 1; i <= 3; i++) {
+            a.add(i);
+            Assertions.assertEquals(i, a.getNextID());
+        }
+        // Hands back identifiers 4 to 10.
+        a.close();
+        // Reopening enables multi-writer mode.
+        IO_Cache b = new IO_Cache(p2);
+        for (int i = 4; i <= 150; i++) {
+            b.add(i);
+            Assertions.assertEquals(i, b.getNextID());
+        }
+        b.close();
+        IO_Cache c = new IO_Cache(p2);
+        for (int i = 1; i <= 150; i++) {
+            Assertions.assertEquals(i, c.get(i));
+        }
+        c.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of reading in multi-writer mode after another instance has made the
+     * cache deeper, of class IO_Cache.
+     */
+    @Test
+    public void testMultiWriterGrow() throws Exception {
+        System.out.println("multiWriterGrow");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testMultiWriterGrow";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        a.enableMultiWriter(10L);
+        for (int i = 1; i <= 3; i++) {
+            a.add(i);
+        }
+        // Another instance adds enough to move the root.
+        IO_Cache b = new IO_Cache(p2);
+        long last = 0L;
+        for (int i = 0; i < 150; i++) {
+            last = b.add(ByteBuffer.wrap(new byte[]{(byte) i}));
+        }
+        Assertions.assertTrue(last > 100L);
+        // Eviction and retention are not supported in this mode.
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> b.evict(1L));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> b.setRetention(new IO_CacheRetention(Long.MAX_VALUE,
+                        1L, null), 1000L));
+        // The first instance still reads its own entries.
+        Assertions.assertEquals(1, a.get(1L));
+        Assertions.assertNotNull(a.getBytes(2L));
+        try (InputStream is = a.openEntry(3L)) {
+            Assertions.assertTrue(is.read() >= 0);
+        }
+        List<Long> ids = new ArrayList<>();
+        try (IO_CacheTail t = a.subscribe(1L, ids::add)) {
+            Assertions.assertTrue(ids.contains(3L));
+        }
+        b.close();
+        a.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of retention, of class IO_Cache.
+     */
+    @Test
+    public void testRetention() throws Exception {
+        System.out.println("retention");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testRetention";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        for (int i = 1; i <= 100; i++) {
+            a.add(ByteBuffer.wrap(new byte[100]));
+        }
+        Assertions.assertEquals(100L, a.getStats().getCount());
+        Assertions.assertEquals(10000L, a.getStats().getBytes());
+        IO_CacheRetention r = new IO_CacheRetention(Long.MAX_VALUE, 35L, null);
+        Assertions.assertEquals(69L, r.enforce(a));
+        Assertions.assertEquals(31L, a.getStats().getCount());
+        Assertions.assertEquals(70L, a.getStats().getFirstID());
+        // Only the aggregates of directories not evicted are stored.
+        Assertions.assertEquals(7L, a.getStats().offsets[1]);
+        Assertions.assertEquals(0L, a.getStats().offsets[2]);
+        Assertions.assertEquals(31L, a.getStats().get(60L, 200L)[0]);
+        Assertions.assertThrows(NoSuchFileException.class,
+                () -> a.getBytes(69L));
+        Assertions.assertEquals(100, a.getBytes(70L).length);
+        r = new IO_CacheRetention(50L, Long.MAX_VALUE, null);
+        r.enforce(a);
+        // The directory containing nextID is never evicted.
+        Assertions.assertEquals(1L, a.getStats().getCount());
+        a.close();
+        // The totals are persisted.
+        IO_Cache b = new IO_Cache(p2);
+        Assertions.assertEquals(100L, b.getStats().getBytes());
+        Assertions.assertEquals(10L, b.getStats().offsets[1]);
+        Assertions.assertEquals(1L, b.getStats().get(1, 10L)[0]);
+        // Statistics older than the entries (as after a crash) are rebuilt.
+        b.flushStats();
+        b.add(ByteBuffer.wrap(new byte[100]));
+        IO_Cache c = new IO_Cache(p2);
+        Assertions.assertEquals(2L, c.getStats().getCount());
+        Assertions.assertEquals(200L, c.getStats().getBytes());
+        c.close();
+        b.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of getSize method, of class IO_Cache.
+     */
+    @Test
+    public void testGetSize() throws Exception {
+        System.out.println("getSize");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testGetSize";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        // Entry i takes up i bytes.
+        for (int i = 1; i <= 250; i++) {
+            a.add(ByteBuffer.wrap(new byte[i]));
+        }
+        long[][] ranges = {{1, 251}, {0, 10}, {3, 7}, {5, 25}, {10, 200},
+            {17, 243}, {100, 1000}};
+        for (long[] r : ranges) {
+            long c = 0L;
+            long b = 0L;
+            for (long i = r[0]; i < Math.min(r[1], 251); i++) {
+                if (i > 0) {
+                    c++;
+                    b += i;
+                }
+            }
+            long[] s = a.getSize(r[0], r[1]);
+            Assertions.assertEquals(c, s[0]);
+            Assertions.assertEquals(b, s[1]);
+        }
+        // The directory 100_199 at the level above that above the leaves.
+        long[] d = a.getStats().get(2, 1L);
+        Assertions.assertEquals(100L, d[0]);
+        Assertions.assertEquals(14950L, d[1]);
+        a.close();
+        // The aggregates are persisted.
+        IO_Cache b = new IO_Cache(p2);
+        long[] s = b.getSize(17L, 243L);
+        Assertions.assertEquals(226L, s[0]);
+        Assertions.assertEquals(29267L, s[1]);
+        // Evicting updates the aggregates.
+        Assertions.assertEquals(9L, b.evict(1L));
+        s = b.getSize(0L, 100L);
+        Assertions.assertEquals(90L, s[0]);
+        Assertions.assertEquals(4905L, s[1]);
+        b.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of deduplication, of class IO_Cache.
+     */
+    @Test
+    public void testDedup() throws Exception {
+        System.out.println("dedup");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testDedup";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        a.enableDedup();
+        for (int i = 0; i < 20; i++) {
+            a.add("Entry " + (i % 2));
+        }
+        long id = a.add(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        Assertions.assertEquals(21L, id);
+        for (long i = 1; i <= 20; i++) {
+            Assertions.assertEquals("Entry " + ((i - 1) % 2), a.get(i));
+        }
+        Assertions.assertArrayEquals(new byte[]{1, 2, 3}, a.getBytes(id));
+        Assertions.assertTrue(Files.isSameFile(a.getEntryPath(1L),
+                a.getEntryPath(3L)));
+        Assertions.assertFalse(Files.isSameFile(a.getEntryPath(1L),
+                a.getEntryPath(2L)));
+        long n;
+        try (Stream<Path> s = Files.walk(a.getMetaPath(IO_Cache.CONTENT))) {
+            n = s.filter(Files::isRegularFile).count();
+        }
+        Assertions.assertEquals(3L, n);
+        Assertions.assertEquals(0L, a.collectContent());
+        a.close();
+        // Reopening enables deduplication.
+        IO_Cache b = new IO_Cache(p2);
+        b.add("Entry 0");
+        Assertions.assertTrue(Files.isSameFile(b.getEntryPath(1L),
+                b.getEntryPath(22L)));
+        b.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of openForAdd and openEntry methods, of class IO_Cache.
+     */
+    @Test
+    public void testOpenForAdd() throws Exception {
+        System.out.println("openForAdd");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testOpenForAdd";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        byte[] b = new byte[1000];
+        long id;
+        try (IO_CacheOutputStream os = a.openForAdd(100000L)) {
+            id = os.getID();
+            for (int i = 0; i < 300; i++) {
+                Arrays.fill(b, (byte) i);
+                os.write(b);
+            }
+        }
+        Assertions.assertEquals(1L, id);
+        Path e = a.getEntryPath(id);
+        Assertions.assertEquals(100000L, Files.size(e));
+        Assertions.assertTrue(Files.exists(a.getChunkPath(e, 2)));
+        Assertions.assertFalse(Files.exists(a.getChunkPath(e, 3)));
+        Assertions.assertEquals(300000L, a.getStats().getBytes());
+        try (InputStream is = a.openEntry(id)) {
+            for (int i = 0; i < 300; i++) {
+                int n = 0;
+                while (n < b.length) {
+                    n += is.read(b, n, b.length - n);
+                }
+                for (int j = 0; j < b.length; j++) {
+                    Assertions.assertEquals((byte) i, b[j]);
+                }
+            }
+            Assertions.assertEquals(-1, is.read());
+        }
+        // An Object streamed without chunks can be read with get.
+        try (IO_CacheOutputStream os = a.openForAdd();
+                ObjectOutputStream oos = new ObjectOutputStream(os)) {
+            oos.writeObject("Streamed");
+        }
+        Assertions.assertEquals("Streamed", a.get(2L));
+        // Entries that fail to be written or are aborted are never added.
+        a.enableChangeLog();
+        List<Long> ids = new ArrayList<>();
+        a.subscribe(3L, ids::add);
+        long bytes = a.getStats().getBytes();
+        IO_CacheOutputStream os = a.openForAdd(2L);
+        os.write(new byte[2]);
+        Files.delete(os.path);
+        Files.delete(os.path.getParent());
+        Assertions.assertThrows(NoSuchFileException.class,
+                () -> os.write(new byte[2]));
+        Assertions.assertThrows(IOException.class, () -> os.write(0));
+        os.close();
+        try (IO_CacheOutputStream os2 = a.openForAdd()) {
+            os2.write(b);
+            os2.abort();
+            Assertions.assertFalse(Files.exists(os2.path));
+        }
+        try (IO_CacheOutputStream os3 = a.openForAdd()) {
+            os3.write(b);
+        }
+        Assertions.assertEquals(List.of(5L), ids);
+        Assertions.assertEquals(bytes + b.length, a.getStats().getBytes());
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Long> ids2 = new CopyOnWriteArrayList<>();
+        try (IO_CacheTail t = IO_Cache.subscribe(p2, 1L, id2 -> {
+            ids2.add(id2);
+            latch.countDown();
+        })) {
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(List.of(5L), ids2);
+        a.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of compact class descriptors, of class IO_Cache.
+     */
+    @Test
+    public void testCompactDescriptors() throws Exception {
+        System.out.println("compactDescriptors");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testCompactDescriptors";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        ArrayList<Long> l = new ArrayList<>(List.of(1L, 2L, 3L));
+        a.add(l);
+        a.enableCompactDescriptors();
+        for (int i = 0; i < 20; i++) {
+            a.add(l);
+            a.add(new BigDecimal(i));
+        }
+        Assertions.assertTrue(Files.size(a.getEntryPath(2L))
+                < Files.size(a.getEntryPath(1L)) / 2);
+        a.close();
+        // Reopening enables compact descriptors and both kinds can be read.
+        IO_Cache b = new IO_Cache(p2);
+        Assertions.assertEquals(l, b.get(1L));
+        for (int i = 0; i < 20; i++) {
+            Assertions.assertEquals(l, b.get(2L + 2 * i));
+            Assertions.assertEquals(new BigDecimal(i), b.get(3L + 2 * i));
+        }
+        // Deserialization reopens the dictionary and other enabled modes.
+        b.enableDedup();
+        b.enableChangeLog();
+        Path f = Paths.get(p.toString(), pname + ".ser");
+        IO_Utilities.writeObject(b, f);
+        b.close();
+        IO_Cache c = (IO_Cache) IO_Utilities.readObject(f);
+        Files.delete(f);
+        Assertions.assertNotNull(c.classes);
+        Assertions.assertNotNull(c.contentDir);
+        Assertions.assertNotNull(c.changeLog);
+        Assertions.assertEquals(new BigDecimal(0), c.get(3L));
+        c.add(l);
+        Assertions.assertEquals(l, c.get(c.getNextID()));
+        c.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of the methods for primitive arrays, of class IO_Cache.
+     */
+    @Test
+    public void testAddDoubles() throws Exception {
+        System.out.println("addDoubles");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testAddDoubles";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        double[] d = {1.5, -2.25, Math.PI, Double.NaN};
+        float[] f = {1.5f, -2.25f};
+        int[] i = {1, -2, Integer.MAX_VALUE};
+        long[] l = {1L, -2L, Long.MIN_VALUE};
+        long did = a.addDoubles(d);
+        long fid = a.addFloats(f);
+        long iid = a.addInts(i);
+        long lid = a.addLongs(l);
+        Assertions.assertEquals(32L, Files.size(a.getEntryPath(did)));
+        Assertions.assertArrayEquals(d, a.getDoubles(did));
+        Assertions.assertArrayEquals(f, a.getFloats(fid));
+        Assertions.assertArrayEquals(i, a.getInts(iid));
+        Assertions.assertArrayEquals(l, a.getLongs(lid));
+        Assertions.assertEquals(Math.PI, a.mapDoubles(did).get(2));
+        Assertions.assertEquals(Integer.MAX_VALUE, a.mapInts(iid).get(2));
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment s = a.map(did, arena);
+            Assertions.assertEquals(-2.25,
+                    s.getAtIndex(IO_Cache.DOUBLE_LE, 1L));
+            Assertions.assertEquals(Long.MIN_VALUE,
+                    a.map(lid, arena).getAtIndex(IO_Cache.LONG_LE, 2L));
+        }
+        Assertions.assertThrows(IOException.class, () -> a.getDoubles(iid));
+        a.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of replace methods, of class IO_Cache.
+     */
+    @Test
+    public void testReplace() throws Exception {
+        System.out.println("replace");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testReplace";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        a.add("a");
+        a.add(ByteBuffer.wrap(new byte[10]));
+        a.replace(1L, "b");
+        Assertions.assertEquals("b", a.get(1L));
+        a.replace(2L, ByteBuffer.wrap(new byte[30]));
+        Assertions.assertEquals(30, a.getBytes(2L).length);
+        Assertions.assertEquals(2L, a.getStats().getCount());
+        Assertions.assertEquals(Files.size(a.getEntryPath(1L)) + 30L,
+                a.getStats().getBytes());
+        Assertions.assertThrows(NoSuchFileException.class,
+                () -> a.replace(3L, "c"));
+        // Concurrent readers see either the old or the new entry.
+        Thread w = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    a.replace(1L, "v" + i);
+                }
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+        });
+        w.start();
+        while (w.isAlive()) {
+            Assertions.assertTrue(((String) a.get(1L)).length() > 0);
+        }
+        Assertions.assertEquals("v199", a.get(1L));
+        try (Stream<Path> s = Files.list(a.getEntryPath(1L).getParent())) {
+            Assertions.assertEquals(1L, s.count());
+        }
+        a.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of the flat layout, of class IO_Cache.
+     */
+    @Test
+    public void testFlatLayout() throws Exception {
+        System.out.println("flatLayout");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testFlatLayout";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        a.enableFlatLayout();
+        for (int i = 1; i <= 150; i++) {
+            a.add(i);
+        }
+        Path e = a.getEntryPath(15L);
+        Assertions.assertEquals("15", e.getFileName().toString());
+        Assertions.assertTrue(Files.isRegularFile(e));
+        Assertions.assertEquals("10_19", e.getParent().getFileName().toString());
+        a.close();
+        IO_Cache b = new IO_Cache(p2);
+        Assertions.assertTrue(b.isFlat());
+        Assertions.assertEquals(150L, b.getNextID());
+        b.add(151);
+        for (int i = 1; i <= 151; i++) {
+            Assertions.assertEquals(i, b.get(i));
+        }
+        Assertions.assertEquals(151L, b.getStats().getCount());
+        // The layout is known after deserialization.
+        Path f = Paths.get(p.toString(), pname + ".ser");
+        IO_Utilities.writeObject(b, f);
+        IO_Cache c = (IO_Cache) IO_Utilities.readObject(f);
+        Files.delete(f);
+        Assertions.assertTrue(c.isFlat());
+        Assertions.assertEquals(15, c.get(15L));
+        b.close();
+        IO_Utilities.delete(p2, false);
+        // Migration.
+        a = new IO_Cache(p, pname, (short) 10);
+        for (int i = 1; i <= 150; i++) {
+            a.add(i);
+        }
+        try (IO_CacheOutputStream os = a.openForAdd(2L)) {
+            os.write(new byte[5]);
+        }
+        Assertions.assertThrows(IllegalStateException.class,
+                a::enableFlatLayout);
+        // Simulate an interrupted migration of entry 5.
+        Path l5 = a.getEntryPath(5L).getParent();
+        Files.move(l5, l5.resolveSibling("5" + IO_Cache.MIGRATING));
+        a.close();
+        Assertions.assertEquals(151L, IO_Cache.migrateToFlat(p2, 4));
+        b = new IO_Cache(p2);
+        Assertions.assertTrue(b.isFlat());
+        for (int i = 1; i <= 150; i++) {
+            Assertions.assertEquals(i, b.get(i));
+        }
+        Assertions.assertEquals(5, b.openEntry(151L).readAllBytes().length);
+        Assertions.assertEquals(151L, b.getStats().getCount());
+        b.close();
+        IO_Utilities.delete(p2, false);
+    }
+
+    /**
+     * Test of the off-heap memory tier, of class IO_Cache.
+     */
+    @Test
+    public void testTier() throws Exception {
+        System.out.println("tier");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        String pname = "testTier";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        IO_Cache a = new IO_Cache(p, pname, (short) 10);
+        try (IO_CacheTier t = new IO_CacheTier(8192L, 64, 4096, 8192)) {
+            a.setTier(t);
+            for (int i = 0; i < 20; i++) {
+                a.add("Entry " + i);
+            }
+            // Served from memory.
+            Files.delete(a.getEntryPath(3L));
+            Assertions.assertEquals("Entry 2", a.get(3L));
+            Assertions.assertEquals(1L, t.getHits());
+            a.replace(4L, "Replaced");
+            Assertions.assertEquals("Replaced", a.get(4L));
+            Assertions.assertEquals(1L, t.getMisses());
+            // Only one slab of 128 blocks fits.
+            for (int i = 0; i < 300; i++) {
+                a.add(ByteBuffer.wrap(new byte[]{(byte) i}));
+            }
+            Assertions.assertEquals(8192L, t.getAllocated());
+            Assertions.assertTrue(t.size() <= 128);
+            for (int i = 0; i < 300; i++) {
+                Assertions.assertEquals((byte) i, a.getBytes(21L + i)[0]);
+            }
+            // Entries too large are not held.
+            Assertions.assertFalse(t.put(1000L, ByteBuffer.allocate(5000)));
+            // Bytes read before a removal are not held.
+            long e = t.getEpoch();
+            t.remove(21L, 321L);
+            Assertions.assertEquals(0, t.size());
+            Assertions.assertFalse(t.put(21L, ByteBuffer.allocate(1), e));
+            Assertions.assertTrue(t.put(21L, ByteBuffer.allocate(1),
+                    t.getEpoch()));
+        }
+        a.close();
+        IO_Utilities.delete(p2, false);
+    }
+
     /**
      * Test of getLevels method, of class IO_Cache.
      */
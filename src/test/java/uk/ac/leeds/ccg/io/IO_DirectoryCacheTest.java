@@ -0,0 +1,144 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_DirectoryCache} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_DirectoryCacheTest {
+
+    public IO_DirectoryCacheTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of getList and getFiles methods, of class IO_DirectoryCache, with
+     * directories watched.
+     */
+    @Test
+    public void testWatched() throws Exception {
+        System.out.println("watched");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path d = Paths.get(p.toString(), "testDirectoryCacheWatched");
+        if (Files.exists(d)) {
+            IO_Utilities.delete(d, false);
+        }
+        Files.createDirectories(d.resolve("sub"));
+        for (int i = 0; i < 10; i++) {
+            Files.writeString(d.resolve("f" + i), "" + i);
+        }
+        Files.writeString(d.resolve("sub").resolve("g"), "g");
+        try (IO_DirectoryCache c = new IO_DirectoryCache()) {
+            Assertions.assertEquals(11, c.getList(d).size());
+            Assertions.assertEquals(new HashSet<>(IO_Utilities.getFiles(d)),
+                    new HashSet<>(c.getFiles(d)));
+            long misses = c.getMisses();
+            Assertions.assertEquals(11, c.getList(d).size());
+            Assertions.assertEquals(misses, c.getMisses());
+            Assertions.assertTrue(c.getHits() > 0L);
+            // Changes are seen once the events are applied.
+            Files.writeString(d.resolve("new"), "new");
+            Files.delete(d.resolve("f0"));
+            long end = System.currentTimeMillis() + 10000L;
+            while (System.currentTimeMillis() < end) {
+                if (c.getList(d).contains(d.resolve("new"))
+                        && !c.getList(d).contains(d.resolve("f0"))) {
+                    break;
+                }
+                Thread.sleep(10L);
+            }
+            Assertions.assertEquals(new HashSet<>(IO_Utilities.getList(d)),
+                    new HashSet<>(c.getList(d)));
+            c.invalidate(d);
+            Assertions.assertEquals(11, c.getList(d).size());
+        }
+        // The least recently used listing is discarded.
+        try (IO_DirectoryCache c = new IO_DirectoryCache(true, 1)) {
+            c.getList(d);
+            IO_DirectoryCache.Listing l = c.listings.get(d);
+            c.getList(d.resolve("sub"));
+            Assertions.assertEquals(1, c.listings.size());
+            Assertions.assertFalse(c.listings.containsKey(d));
+            if (l.key != null) {
+                Assertions.assertFalse(l.key.isValid());
+            }
+            long misses = c.getMisses();
+            c.getList(d);
+            Assertions.assertEquals(misses + 1L, c.getMisses());
+        }
+        IO_Utilities.delete(d, false);
+    }
+
+    /**
+     * Test of getList method, of class IO_DirectoryCache, checking last
+     * modified times.
+     */
+    @Test
+    public void testUnwatched() throws Exception {
+        System.out.println("unwatched");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path d = Paths.get(p.toString(), "testDirectoryCacheUnwatched");
+        if (Files.exists(d)) {
+            IO_Utilities.delete(d, false);
+        }
+        Files.createDirectories(d);
+        Files.writeString(d.resolve("a"), "a");
+        // Make the directory look old so that the listing is trusted.
+        long old = System.currentTimeMillis() - 60000L;
+        Files.setLastModifiedTime(d, FileTime.fromMillis(old));
+        try (IO_DirectoryCache c = new IO_DirectoryCache(false)) {
+            Assertions.assertEquals(1, c.getList(d).size());
+            Assertions.assertEquals(1, c.getList(d).size());
+            Assertions.assertEquals(1L, c.getMisses());
+            Assertions.assertEquals(1L, c.getHits());
+            Files.writeString(d.resolve("b"), "b");
+            Assertions.assertEquals(2, c.getList(d).size());
+            Assertions.assertEquals(2L, c.getMisses());
+        }
+        IO_Utilities.delete(d, false);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_DirectoryCopy} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_DirectoryCopyTest {
+
+    public IO_DirectoryCopyTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of copy method, of class IO_DirectoryCopy.
+     */
+    @Test
+    public void testCopy() throws Exception {
+        System.out.println("copy");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path s = Paths.get(p.toString(), "testDirectoryCopyFrom");
+        Path t = Paths.get(p.toString(), "testDirectoryCopyTo");
+        for (Path d : new Path[]{s, t}) {
+            if (Files.exists(d)) {
+                IO_Utilities.delete(d, false);
+            }
+        }
+        long bytes = 0L;
+        for (int i = 0; i < 5; i++) {
+            Path d = s.resolve("d" + i).resolve("e" + i);
+            Files.createDirectories(d);
+            for (int j = 0; j < 100; j++) {
+                String c = i + "_" + j;
+                Files.writeString(d.resolve("f" + j), c);
+                bytes += c.length();
+            }
+        }
+        Files.createDirectories(s.resolve("empty"));
+        Files.writeString(s.resolve("top"), "top");
+        bytes += 3;
+        IO_DirectoryCopy.Result r = new IO_DirectoryCopy(8, false).copy(s, t);
+        Assertions.assertEquals(501L, r.getFiles());
+        Assertions.assertEquals(bytes, r.getBytes());
+        Assertions.assertEquals(12L, r.getDirectories());
+        Assertions.assertEquals(0L, r.getFailureCount());
+        Assertions.assertTrue(r.getFilesPerSecond() > 0d);
+        Assertions.assertEquals("3_42",
+                Files.readString(t.resolve("d3").resolve("e3").resolve("f42")));
+        Assertions.assertTrue(Files.isDirectory(t.resolve("empty")));
+        // Copying again fails for each file unless replacing.
+        r = new IO_DirectoryCopy(8, false).copy(s, t);
+        Assertions.assertEquals(501L, r.getFailureCount());
+        Assertions.assertEquals(501, r.getFailures().size());
+        r = new IO_DirectoryCopy(8, true).copy(s, t);
+        Assertions.assertEquals(0L, r.getFailureCount());
+        Assertions.assertEquals(501L, r.getFiles());
+        IO_Utilities.delete(s, false);
+        IO_Utilities.delete(t, false);
+    }
+}
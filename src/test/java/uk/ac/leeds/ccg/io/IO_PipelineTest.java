@@ -0,0 +1,154 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_Pipeline} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_PipelineTest {
+
+    public IO_PipelineTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of run method, of class IO_Pipeline.
+     */
+    @Test
+    public void testRun() throws Exception {
+        System.out.println("run");
+        List<Integer> l = new ArrayList<>();
+        for (int i = 1; i <= 1000; i++) {
+            l.add(i);
+        }
+        AtomicLong sum = new AtomicLong();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        IO_Pipeline.Result r = IO_Pipeline.of(l).queueCapacity(4)
+                .io("read", 8, i -> {
+                    if (i == 500) {
+                        throw new IllegalStateException("500");
+                    }
+                    return i * 2L;
+                })
+                .cpu("transform", 2, x -> x % 10L == 0L ? null : x + 1L)
+                .io("store", 3, x -> {
+                    maxActive.accumulateAndGet(active.incrementAndGet(),
+                            Math::max);
+                    Thread.sleep(1L);
+                    sum.addAndGet(x);
+                    active.decrementAndGet();
+                    return x;
+                }).run();
+        long expected = 0L;
+        for (int i = 1; i <= 1000; i++) {
+            long x = i * 2L;
+            if (i != 500 && x % 10L != 0L) {
+                expected += x + 1L;
+            }
+        }
+        Assertions.assertEquals(expected, sum.get());
+        Assertions.assertEquals(1000L, r.getSourced());
+        Assertions.assertEquals(3, r.getStages().size());
+        IO_Pipeline.Metrics m = r.getStages().get(0);
+        Assertions.assertEquals("read", m.name);
+        Assertions.assertEquals(1000L, m.getIn());
+        Assertions.assertEquals(999L, m.getOut());
+        Assertions.assertEquals(1L, m.getErrors());
+        Assertions.assertEquals(999L, r.getStages().get(1).getIn());
+        Assertions.assertEquals(800L, r.getStages().get(1).getOut());
+        Assertions.assertEquals(800L, r.getStages().get(2).getOut());
+        Assertions.assertTrue(r.getStages().get(2).getThroughput() > 0d);
+        Assertions.assertTrue(maxActive.get() <= 3);
+        Assertions.assertEquals(1, r.getFailures().size());
+        Assertions.assertFalse(r.isAborted());
+        // An Error from a step aborts the pipeline rather than hanging it.
+        r = IO_Pipeline.of(l).queueCapacity(4)
+                .cpu("fail", 1, i -> {
+                    throw new AssertionError(i);
+                })
+                .io("sink", 2, i -> i)
+                .run();
+        Assertions.assertTrue(r.isAborted());
+        Assertions.assertTrue(r.getFailures().get(0) instanceof AssertionError);
+        // Files into a cache.
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path dir = Paths.get(p.toString(), "testPipelineIn");
+        if (Files.exists(dir)) {
+            IO_Utilities.delete(dir, false);
+        }
+        Files.createDirectories(dir);
+        for (int i = 0; i < 20; i++) {
+            Files.writeString(dir.resolve("f" + i + ".txt"), "" + i);
+        }
+        String pname = "testPipelineCache";
+        Path p2 = Paths.get(p.toString(), pname);
+        if (Files.exists(p2)) {
+            IO_Utilities.delete(p2, false);
+        }
+        try (IO_Cache c = new IO_Cache(p, pname, (short) 10)) {
+            r = IO_Pipeline.files(dir)
+                    .io("read", 4, f -> Files.readString(f))
+                    .cpu("parse", 2, s -> Integer.valueOf(s))
+                    .io("store", 1, i -> {
+                        c.add(i);
+                        return i;
+                    }).run();
+            Assertions.assertEquals(20L, r.getStages().get(2).getOut());
+            Assertions.assertEquals(20L, c.getNextID());
+            int total = 0;
+            for (long id = 1L; id <= 20L; id++) {
+                total += (Integer) c.get(id);
+            }
+            Assertions.assertEquals(190, total);
+        }
+        IO_Utilities.delete(dir, false);
+        IO_Utilities.delete(p2, false);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_RecordContainer} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_RecordContainerTest {
+
+    public IO_RecordContainerTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of write, stream and get methods, of class IO_RecordContainer.
+     */
+    @Test
+    public void testWriteRead() throws Exception {
+        System.out.println("writeRead");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testRecordContainer.dat");
+        for (boolean compress : new boolean[]{false, true}) {
+            long n = IO_RecordContainer.write(LongStream.range(0L, 1000L)
+                    .mapToObj(i -> "Record " + i).iterator(), f, 64, compress);
+            Assertions.assertEquals(1000L, n);
+            try (IO_RecordContainer c = new IO_RecordContainer(f)) {
+                Assertions.assertEquals(1000L, c.getCount());
+                Assertions.assertEquals("Record 0", c.get(0L));
+                Assertions.assertEquals("Record 500", c.get(500L));
+                Assertions.assertEquals("Record 999", c.get(999L));
+                Assertions.assertThrows(IndexOutOfBoundsException.class,
+                        () -> c.get(1000L));
+            }
+            try (Stream<Object> s = new IO_RecordContainer(f).stream(130L)) {
+                List<Object> l = s.collect(Collectors.toList());
+                Assertions.assertEquals(870, l.size());
+                Assertions.assertEquals("Record 130", l.get(0));
+                Assertions.assertEquals("Record 999", l.get(869));
+            }
+        }
+        // Via IO_Utilities.
+        IO_Utilities.writeObjects(Stream.of(1, "two", 3.0d), f);
+        try (Stream<Object> s = IO_Utilities.readObjects(f)) {
+            Assertions.assertEquals(List.of(1, "two", 3.0d),
+                    s.collect(Collectors.toList()));
+        }
+        IO_Utilities.writeObjects(Stream.empty(), f);
+        try (Stream<Object> s = IO_Utilities.readObjects(f)) {
+            Assertions.assertEquals(0L, s.count());
+        }
+        Files.writeString(f, "Not a container at all");
+        Assertions.assertThrows(IOException.class,
+                () -> IO_Utilities.readObjects(f));
+        Files.delete(f);
+    }
+}
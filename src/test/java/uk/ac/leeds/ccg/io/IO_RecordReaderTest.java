@@ -0,0 +1,152 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_RecordReader} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_RecordReaderTest {
+
+    public IO_RecordReaderTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of next, getField, getLong and getDouble methods, of class
+     * IO_RecordReader.
+     */
+    @Test
+    public void testNext() throws Exception {
+        System.out.println("next");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testRecordReader.csv");
+        StringBuilder sb = new StringBuilder("id,name,value\r\n");
+        for (int i = 0; i < 20000; i++) {
+            sb.append(i).append(",n").append(i).append(',')
+                    .append(i * 0.25d).append('\n');
+        }
+        sb.append(",café,").append("x".repeat(100000));
+        Files.writeString(f, sb.toString(), StandardCharsets.UTF_8);
+        try (IO_RecordReader r = new IO_RecordReader(f, (byte) ',')) {
+            Assertions.assertTrue(r.next());
+            Assertions.assertEquals(3, r.getFieldCount());
+            Assertions.assertTrue(r.getField(2).contentEquals("value"));
+            for (int i = 0; i < 20000; i++) {
+                Assertions.assertTrue(r.next());
+                Assertions.assertEquals(i, r.getLong(0));
+                Assertions.assertTrue(r.getField(1).contentEquals("n" + i));
+                Assertions.assertEquals(i * 0.25d, r.getDouble(2));
+            }
+            Assertions.assertTrue(r.next());
+            Assertions.assertEquals(0, r.getField(0).length());
+            Assertions.assertEquals("café",
+                    r.getField(1).toString(StandardCharsets.UTF_8));
+            Assertions.assertEquals(100000, r.getField(2).length());
+            Assertions.assertThrows(IndexOutOfBoundsException.class,
+                    () -> r.getField(3));
+            Assertions.assertFalse(r.next());
+        }
+        // From a buffer.
+        ByteBuffer b = ByteBuffer.wrap("1|2\n3|4\n".getBytes(
+                StandardCharsets.US_ASCII));
+        IO_RecordReader r = new IO_RecordReader(b, (byte) '|');
+        Assertions.assertTrue(r.next());
+        Assertions.assertEquals("2", r.getField(1).toString());
+        Assertions.assertTrue(r.next());
+        Assertions.assertEquals(4L, r.getField(1).parseLong());
+        Assertions.assertFalse(r.next());
+        Files.delete(f);
+    }
+
+    /**
+     * Test of parseLong and parseDouble methods, of class IO_RecordReader.
+     */
+    @Test
+    public void testParse() {
+        System.out.println("parse");
+        for (String s : new String[]{"0", "-0", "+7", "123456789",
+            "9223372036854775807", "-9223372036854775808"}) {
+            Assertions.assertEquals(Long.parseLong(s), parseLong(s));
+        }
+        for (String s : new String[]{"", "-", "1a", "9223372036854775808",
+            "-9223372036854775809"}) {
+            Assertions.assertThrows(NumberFormatException.class,
+                    () -> parseLong(s));
+        }
+        for (String s : new String[]{"0", "-0.0", "1.5", ".5", "5.", "1e3",
+            "1.25E-5", "-123.456e2", "0.001", "3.141592653589793",
+            "12345678901234567890", "1e400", "-1e-400", "4.9e-324",
+            "1.7976931348623157e308", "NaN", "-Infinity", "007.50",
+            "0.1", "0.3", "2.2250738585072014E-308", "9007199254740993"}) {
+            Assertions.assertEquals(Double.parseDouble(s), parseDouble(s), s);
+        }
+        Random rnd = new Random(1L);
+        for (int i = 0; i < 100000; i++) {
+            double d = rnd.nextDouble() * Math.pow(10, rnd.nextInt(40) - 20);
+            String s = Double.toString(d);
+            Assertions.assertEquals(d, parseDouble(s), s);
+            s = String.format("%.6f", d);
+            Assertions.assertEquals(Double.parseDouble(s), parseDouble(s), s);
+        }
+        for (String s : new String[]{"", "-", "1e", "1.2.3", "abc"}) {
+            Assertions.assertThrows(NumberFormatException.class,
+                    () -> parseDouble(s));
+        }
+    }
+
+    private static long parseLong(String s) {
+        byte[] a = s.getBytes(StandardCharsets.US_ASCII);
+        return IO_RecordReader.parseLong(ByteBuffer.wrap(a), 0, a.length);
+    }
+
+    private static double parseDouble(String s) {
+        byte[] a = s.getBytes(StandardCharsets.US_ASCII);
+        return IO_RecordReader.parseDouble(ByteBuffer.wrap(a), 0, a.length);
+    }
+}
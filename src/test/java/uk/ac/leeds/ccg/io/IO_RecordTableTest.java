@@ -0,0 +1,104 @@
+/*
+ * Copyright 2026 Andy Turner, University of Leeds.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.ac.leeds.ccg.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Assertions;
+
+/**
+ * Tests for {@link IO_RecordTable} class.
+ *
+ * @author Andy Turner
+ * @version 1.0
+ */
+public class IO_RecordTableTest {
+
+    public IO_RecordTableTest() {
+        super();
+    }
+
+    @BeforeAll
+    public static void setUpClass() {
+    }
+
+    @AfterAll
+    public static void tearDownClass() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+    }
+
+    /**
+     * Test of add, get and set methods, of class IO_RecordTable.
+     */
+    @Test
+    public void testAddGetSet() throws Exception {
+        System.out.println("addGetSet");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testRecordTable.dat");
+        Files.deleteIfExists(f);
+        try (IO_RecordTable t = new IO_RecordTable(f, 12, 4L)) {
+            for (int i = 1; i <= 100; i++) {
+                ByteBuffer b = ByteBuffer.allocate(12);
+                b.putInt(i).putLong(i * 10L).flip();
+                Assertions.assertEquals(i, t.add(b));
+                Assertions.assertFalse(b.hasRemaining());
+            }
+            Assertions.assertEquals(100L, t.getNextID());
+            Assertions.assertEquals(128L, t.getCapacity());
+            ByteBuffer b = ByteBuffer.allocate(12);
+            b.putInt(-1).putLong(-10L).flip();
+            t.set(50L, b);
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> t.add(ByteBuffer.allocate(11)));
+            Assertions.assertThrows(IndexOutOfBoundsException.class,
+                    () -> t.getBytes(101L));
+        }
+        // Reopen.
+        try (IO_RecordTable t = new IO_RecordTable(f, 12)) {
+            Assertions.assertEquals(100L, t.getNextID());
+            ByteBuffer b = ByteBuffer.allocate(12);
+            for (int i = 1; i <= 100; i++) {
+                b.clear();
+                Assertions.assertEquals(12, t.get(i, b));
+                b.flip();
+                int e = i == 50 ? -1 : i;
+                Assertions.assertEquals(e, b.getInt());
+                Assertions.assertEquals(e * 10L, b.getLong());
+            }
+            Assertions.assertEquals(7, ByteBuffer.wrap(t.getBytes(7L))
+                    .getInt());
+        }
+        Assertions.assertThrows(IOException.class,
+                () -> new IO_RecordTable(f, 8));
+        Files.delete(f);
+    }
+}
@@ -16,9 +16,20 @@
 package uk.ac.leeds.ccg.io;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -74,6 +85,264 @@ public class IO_UtilitiesTest {
         }
     }
 
+    /**
+     * Test of writeObjectPooled method, of class IO_Utilities.
+     */
+    @Test
+    public void testWriteObjectPooled() throws IOException,
+            ClassNotFoundException {
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testPooled.dat");
+        // Write several times so that buffers are reused.
+        for (int i = 0; i < 3; i++) {
+            String o = "Hello World " + i;
+            IO_Utilities.writeObjectPooled(o, f);
+            Assertions.assertEquals(o, IO_Utilities.readObject(f));
+        }
+        // Writing something shorter must not leave trailing bytes.
+        Integer o = 1;
+        IO_Utilities.writeObjectPooled(o, f);
+        Assertions.assertEquals(o, IO_Utilities.readObject(f));
+        Files.delete(f);
+    }
+
+    /**
+     * Test of copyFile method, of class IO_Utilities.
+     */
+    @Test
+    public void testCopyFile() throws IOException {
+        System.out.println("copyFile");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testCopyFile.dat");
+        byte[] b = new byte[1_000_003];
+        new Random(7L).nextBytes(b);
+        Files.write(f, b);
+        Path d = Paths.get(p.toString(), "testCopyFileTo");
+        // Overwriting a longer file must not leave trailing bytes.
+        Files.createDirectories(d);
+        Files.write(d.resolve("a.dat"), new byte[2_000_000]);
+        IO_Utilities.copyFile(f, d, "a.dat");
+        Assertions.assertArrayEquals(b, Files.readAllBytes(d.resolve("a.dat")));
+        AtomicLong last = new AtomicLong();
+        IO_Utilities.copyFile(f, d, "b.dat", 4, 65536L,
+                x -> last.accumulateAndGet(x, Math::max));
+        Assertions.assertArrayEquals(b, Files.readAllBytes(d.resolve("b.dat")));
+        Assertions.assertEquals(b.length, last.get());
+        Files.write(f, new byte[0]);
+        IO_Utilities.copyFile(f, d, "c.dat", 4, 65536L, null);
+        Assertions.assertEquals(0L, Files.size(d.resolve("c.dat")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> IO_Utilities.copyFile(f, d, "d.dat", 4, 0L, null));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> IO_Utilities.copyFile(f, d, "d.dat", 0, 65536L, null));
+        IO_Utilities.delete(d, false);
+        Files.delete(f);
+    }
+
+    /**
+     * Test of deleteTree and deleteInBackground methods, of class
+     * IO_Utilities.
+     */
+    @Test
+    public void testDeleteTree() throws Exception {
+        System.out.println("deleteTree");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path d = Paths.get(p.toString(), "testDeleteTree");
+        for (int parallelism : new int[]{1, 4}) {
+            for (int i = 0; i < 4; i++) {
+                Path e = d.resolve("d" + i).resolve("e");
+                Files.createDirectories(e);
+                for (int j = 0; j < 10; j++) {
+                    Files.writeString(e.resolve("f" + j), "" + j);
+                }
+            }
+            // 1 + 4 * (2 + 10) paths.
+            Assertions.assertEquals(49L,
+                    IO_Utilities.deleteTree(d, parallelism, false));
+            Assertions.assertFalse(Files.exists(d));
+        }
+        Assertions.assertThrows(IOException.class,
+                () -> IO_Utilities.deleteTree(d, 4, false));
+        Files.createDirectories(d.resolve("a"));
+        Files.writeString(d.resolve("a").resolve("f"), "f");
+        Path trash = Paths.get(p.toString(), "testDeleteTreeTrash");
+        CompletableFuture<Long> f = IO_Utilities.deleteInBackground(d, trash,
+                2);
+        Assertions.assertFalse(Files.exists(d));
+        Assertions.assertEquals(4L, (long) f.get());
+        try (Stream<Path> s = Files.list(trash)) {
+            Assertions.assertEquals(0L, s.count());
+        }
+        Files.delete(trash);
+    }
+
+    /**
+     * Test of streamFiles method, of class IO_Utilities.
+     */
+    @Test
+    public void testStreamFiles() throws Exception {
+        System.out.println("streamFiles");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path d = Paths.get(p.toString(), "testStreamFiles");
+        if (Files.exists(d)) {
+            IO_Utilities.delete(d, false);
+        }
+        for (int i = 0; i < 6; i++) {
+            Path e = d.resolve("d" + i).resolve("e" + i);
+            Files.createDirectories(e);
+            for (int j = 0; j < 50; j++) {
+                Files.writeString(e.resolve("f" + j), "x".repeat(j));
+            }
+        }
+        Files.createDirectories(d.resolve("empty"));
+        Files.writeString(d.resolve("top"), "top");
+        Set<Path> expected = new HashSet<>(IO_Utilities.getFiles(d));
+        Assertions.assertEquals(301, expected.size());
+        try (Stream<Path> s = IO_Utilities.streamFiles(d)) {
+            Assertions.assertEquals(expected, s.collect(Collectors.toSet()));
+        }
+        try (Stream<Path> s = IO_Utilities.streamFiles(d).parallel()) {
+            Assertions.assertEquals(expected, s.collect(Collectors.toSet()));
+        }
+        try (Stream<Path> s = IO_Utilities.streamFiles(d,
+                (f, a) -> a.size() >= 40L)) {
+            Assertions.assertEquals(60L, s.count());
+        }
+        try (Stream<Path> s = IO_Utilities.streamFiles(d)) {
+            Assertions.assertTrue(s.findFirst().isPresent());
+        }
+        Assertions.assertThrows(IOException.class,
+                () -> IO_Utilities.streamFiles(d.resolve("top")));
+        IO_Utilities.delete(d, false);
+    }
+
+    /**
+     * Test of allocateNewFile method, of class IO_Utilities.
+     */
+    @Test
+    public void testAllocateNewFile() throws Exception {
+        System.out.println("allocateNewFile");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Path d = Paths.get(p.toString(), "testAllocateNewFile");
+        if (Files.exists(d)) {
+            IO_Utilities.delete(d, false);
+        }
+        Files.createDirectories(d);
+        Files.createFile(d.resolve("a.txt"));
+        for (int i = 0; i < 37; i++) {
+            Files.createFile(d.resolve("a" + i + ".txt"));
+        }
+        Assertions.assertEquals(d.resolve("a37.txt"),
+                IO_Utilities.allocateNewFile(d, "a", ".txt"));
+        Assertions.assertEquals(d.resolve("b.txt"),
+                IO_Utilities.allocateNewFile(d, "b", ".txt"));
+        Assertions.assertEquals(d.resolve("b0.txt"),
+                IO_Utilities.allocateNewFile(d, "b", ".txt"));
+        // Files created by other means are skipped.
+        Files.createFile(d.resolve("a38.txt"));
+        Assertions.assertEquals(d.resolve("a39.txt"),
+                IO_Utilities.allocateNewFile(d, "a", ".txt"));
+        // Nothing is remembered, so a freed number at the end is reused.
+        Files.delete(d.resolve("a39.txt"));
+        Assertions.assertEquals(d.resolve("a39.txt"),
+                IO_Utilities.allocateNewFile(d, "a", ".txt"));
+        // Many threads.
+        Set<Path> s = ConcurrentHashMap.newKeySet();
+        Thread[] ts = new Thread[8];
+        for (int t = 0; t < ts.length; t++) {
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        s.add(IO_Utilities.allocateNewFile(d, "", ""));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        Assertions.assertEquals(800, s.size());
+        Assertions.assertTrue(s.contains(d.resolve("0")));
+        // An allocator counts on from the first free number.
+        IO_FileAllocator fa = new IO_FileAllocator(d);
+        Assertions.assertEquals(d.resolve("c.txt"), fa.allocate("c", ".txt"));
+        Assertions.assertEquals(d.resolve("c0.txt"), fa.allocate("c", ".txt"));
+        Files.delete(d.resolve("c0.txt"));
+        Assertions.assertEquals(d.resolve("c1.txt"), fa.allocate("c", ".txt"));
+        Set<Path> s2 = ConcurrentHashMap.newKeySet();
+        for (int t = 0; t < ts.length; t++) {
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        s2.add(fa.allocate("d", ""));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        Assertions.assertEquals(800, s2.size());
+        Assertions.assertTrue(s2.contains(d.resolve("d")));
+        Assertions.assertTrue(s2.contains(d.resolve("d798")));
+        IO_Utilities.delete(d, false);
+    }
+
+    /**
+     * Test of lines and forEachLine methods, of class IO_Utilities.
+     */
+    @Test
+    public void testLines() throws Exception {
+        System.out.println("lines");
+        Path p = Paths.get(System.getProperty("user.dir"), "data");
+        Files.createDirectories(p);
+        Path f = Paths.get(p.toString(), "testLines.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            sb.append(i).append(",é€𝄞,").append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i == 1000) {
+                sb.append("y".repeat(200000)).append("\n");
+            }
+        }
+        sb.append("last");
+        Files.writeString(f, sb.toString(), StandardCharsets.UTF_8);
+        List<String> expected = Files.readAllLines(f, StandardCharsets.UTF_8);
+        try (Stream<String> s = IO_Utilities.lines(f, StandardCharsets.UTF_8)) {
+            Assertions.assertEquals(expected, s.collect(Collectors.toList()));
+        }
+        try (Stream<String> s = IO_Utilities.lines(f, StandardCharsets.UTF_8)
+                .parallel()) {
+            Assertions.assertEquals(expected, s.collect(Collectors.toList()));
+        }
+        AtomicLong n = new AtomicLong();
+        IO_Utilities.forEachLine(f, StandardCharsets.UTF_8, 4, l -> {
+            if (l.endsWith(",é€𝄞,")) {
+                n.incrementAndGet();
+            }
+        });
+        Assertions.assertEquals(200000L, n.get());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> IO_Utilities.lines(f, StandardCharsets.UTF_16));
+        byte[] b = Files.readAllBytes(f);
+        try (FileChannel fc = FileChannel.open(f)) {
+            long[] r = IO_LineSpliterator.split(fc, 0L, fc.size(), 4);
+            Assertions.assertEquals(5, r.length);
+            Assertions.assertEquals(b.length, r[4]);
+            for (int i = 1; i < 4; i++) {
+                Assertions.assertEquals('\n', b[(int) r[i] - 1]);
+            }
+        }
+        Files.delete(f);
+    }
+
     public Path getNewTestFile(String prefix, String suffix) throws IOException {
         Path p = Paths.get(System.getProperty("user.dir"), "data");
         return Paths.get(p.toString(), prefix + suffix);